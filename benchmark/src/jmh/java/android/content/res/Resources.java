@@ -0,0 +1,8 @@
+package android.content.res;
+
+/**
+ * Benchmark stub.
+ */
+public class Resources {
+
+}
@@ -0,0 +1,73 @@
+package android.graphics;
+
+/**
+ * Benchmark stub. Holds no pixels, only what the caches account for.
+ */
+public final class Bitmap {
+
+    public enum Config {
+
+        ALPHA_8(1),
+        RGB_565(2),
+        ARGB_4444(2),
+        ARGB_8888(4),
+        RGBA_F16(8),
+        HARDWARE(4);
+
+        private final int mBytesPerPixel;
+
+        Config(int bytesPerPixel) {
+            mBytesPerPixel = bytesPerPixel;
+        }
+
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config) {
+        return new Bitmap(width, height, config);
+    }
+
+    private int mWidth;
+    private int mHeight;
+    private Config mConfig;
+
+    private boolean mRecycled = false;
+
+    private Bitmap(int width, int height, Config config) {
+        mWidth = width;
+        mHeight = height;
+        mConfig = config;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public Config getConfig() {
+        return mConfig;
+    }
+
+    public boolean isMutable() {
+        return true;
+    }
+
+    public boolean isRecycled() {
+        return mRecycled;
+    }
+
+    public void recycle() {
+        mRecycled = true;
+    }
+
+    public int getByteCount() {
+        return mWidth * mHeight * mConfig.mBytesPerPixel;
+    }
+
+    public int getAllocationByteCount() {
+        return getByteCount();
+    }
+
+}
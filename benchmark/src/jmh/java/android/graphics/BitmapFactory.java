@@ -0,0 +1,21 @@
+package android.graphics;
+
+/**
+ * Benchmark stub.
+ */
+public class BitmapFactory {
+
+    public static class Options {
+
+        public Bitmap inBitmap;
+        public boolean inMutable;
+        public boolean inJustDecodeBounds;
+        public int inSampleSize;
+        public Bitmap.Config inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+        public int outWidth;
+        public int outHeight;
+
+    }
+
+}
@@ -0,0 +1,21 @@
+package android.graphics.drawable;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+
+/**
+ * Benchmark stub.
+ */
+public class BitmapDrawable extends Drawable {
+
+    private Bitmap mBitmap;
+
+    public BitmapDrawable(Resources resources, Bitmap bitmap) {
+        mBitmap = bitmap;
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+}
@@ -0,0 +1,8 @@
+package android.graphics.drawable;
+
+/**
+ * Benchmark stub.
+ */
+public abstract class Drawable {
+
+}
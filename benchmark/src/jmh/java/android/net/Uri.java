@@ -0,0 +1,33 @@
+package android.net;
+
+/**
+ * Benchmark stub. Compared by its string like the real one.
+ */
+public final class Uri {
+
+    public static Uri parse(String uriString) {
+        return new Uri(uriString);
+    }
+
+    private String mUriString;
+
+    private Uri(String uriString) {
+        mUriString = uriString;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Uri && mUriString.equals(((Uri) o).mUriString);
+    }
+
+    @Override
+    public int hashCode() {
+        return mUriString.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mUriString;
+    }
+
+}
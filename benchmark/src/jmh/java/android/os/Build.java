@@ -0,0 +1,25 @@
+package android.os;
+
+/**
+ * Benchmark stub.
+ */
+public class Build {
+
+    public static class VERSION {
+
+        public static final int SDK_INT = VERSION_CODES.Q;
+
+    }
+
+    public static class VERSION_CODES {
+
+        public static final int KITKAT = 19;
+        public static final int LOLLIPOP = 21;
+        public static final int N = 24;
+        public static final int O = 26;
+        public static final int P = 28;
+        public static final int Q = 29;
+
+    }
+
+}
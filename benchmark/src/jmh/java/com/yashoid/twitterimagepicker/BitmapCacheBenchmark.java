@@ -0,0 +1,117 @@
+package com.yashoid.twitterimagepicker;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The memory cache as the grid uses it: binds look thumbnails up on the main thread while workers
+ * put the ones they load, evicting older entries into the pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BitmapCacheBenchmark {
+
+    private static final int THUMBNAIL_SIZE = 360;
+
+    private static final int KEY_COUNT = 4096;
+
+    // Bytes of a single thumbnail.
+    private static final long THUMBNAIL_BYTES = THUMBNAIL_SIZE * THUMBNAIL_SIZE * 4;
+
+    /**
+     * How many thumbnails fit in the cache.
+     */
+    @Param({ "64", "512" })
+    public int capacity;
+
+    private BitmapPool mBitmapPool;
+    private BitmapCache mCache;
+
+    @Setup
+    public void setup() {
+        mBitmapPool = new BitmapPool(THUMBNAIL_BYTES * 16);
+        mCache = new BitmapCache(new Resources(), mBitmapPool, THUMBNAIL_BYTES * capacity);
+
+        for (int i = 0; i < capacity; i++) {
+            mCache.put(i, newThumbnail());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+
+        private Random mRandom = new Random(Thread.currentThread().getId());
+
+        /**
+         * Mostly around the cached range with a tail that misses, like scrolling back and forth.
+         */
+        int nextKey(int capacity) {
+            return Math.min(KEY_COUNT - 1, (int) Math.abs(mRandom.nextGaussian() * capacity));
+        }
+
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Drawable get(Keys keys) {
+        return mCache.get(keys.nextKey(capacity));
+    }
+
+    /**
+     * A bind that loads the thumbnail on a miss.
+     */
+    @Benchmark
+    @Threads(4)
+    public Drawable getOrPut(Keys keys) {
+        long imageId = keys.nextKey(capacity);
+
+        Drawable drawable = mCache.get(imageId);
+
+        if (drawable == null) {
+            drawable = mCache.put(imageId, newThumbnail());
+        }
+
+        return drawable;
+    }
+
+    @Benchmark
+    @Group("bindAndLoad")
+    @GroupThreads(1)
+    public Drawable bind(Keys keys) {
+        return mCache.get(keys.nextKey(capacity));
+    }
+
+    @Benchmark
+    @Group("bindAndLoad")
+    @GroupThreads(3)
+    public Drawable load(Keys keys) {
+        return mCache.put(keys.nextKey(capacity * 2), newThumbnail());
+    }
+
+    /**
+     * Reuses an evicted bitmap like the decoders do.
+     */
+    private Bitmap newThumbnail() {
+        Bitmap bitmap = mBitmapPool.get(THUMBNAIL_SIZE, THUMBNAIL_SIZE, Bitmap.Config.ARGB_8888);
+
+        return bitmap != null ? bitmap : Bitmap.createBitmap(THUMBNAIL_SIZE, THUMBNAIL_SIZE, Bitmap.Config.ARGB_8888);
+    }
+
+}
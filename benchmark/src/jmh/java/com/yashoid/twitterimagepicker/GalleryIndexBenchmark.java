@@ -0,0 +1,153 @@
+package com.yashoid.twitterimagepicker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the gallery index the way GalleryAccess scans MediaStore, and the lookups that are done
+ * on it while binding and updating.
+ */
+@State(Scope.Benchmark)
+public class GalleryIndexBenchmark {
+
+    private static final int BUCKET_COUNT = 200;
+
+    // Same as GalleryAccess.
+    private static final int FIRST_PAGE_SIZE = 100;
+
+    private static final int LOOKUP_COUNT = 1024;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int rowCount;
+
+    private SyntheticCursor mCursor;
+
+    private GalleryIndex mIndex;
+
+    private long[] mLookupImageIds;
+    private long[] mLookupBucketIds;
+    private int[] mLookupPositions;
+    private int[] mLookupBuckets;
+    private int[] mLookupBucketPositions;
+
+    private int mLookup = 0;
+
+    @Setup
+    public void setup() {
+        mCursor = new SyntheticCursor(rowCount, BUCKET_COUNT, 42);
+
+        mIndex = scan(mCursor, null);
+
+        Random random = new Random(7);
+
+        mLookupImageIds = new long[LOOKUP_COUNT];
+        mLookupBucketIds = new long[LOOKUP_COUNT];
+        mLookupPositions = new int[LOOKUP_COUNT];
+        mLookupBuckets = new int[LOOKUP_COUNT];
+        mLookupBucketPositions = new int[LOOKUP_COUNT];
+
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            int position = random.nextInt(mIndex.getImageCount());
+            int bucketIndex = mIndex.getImageBucket(position);
+
+            mLookupImageIds[i] = mIndex.getImageId(position);
+            mLookupBucketIds[i] = mIndex.getBucketId(bucketIndex);
+            mLookupPositions[i] = position;
+            mLookupBuckets[i] = bucketIndex;
+            mLookupBucketPositions[i] = random.nextInt(mIndex.getImageCount(bucketIndex));
+        }
+    }
+
+    /**
+     * The prepare scan including the snapshots it publishes as the row count doubles.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public GalleryIndex buildIndex(Blackhole blackhole) {
+        return scan(mCursor, blackhole);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int imagePosition() {
+        return mIndex.getImagePosition(mLookupImageIds[nextLookup()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int bucketIndex() {
+        return mIndex.getBucketIndex(mLookupBucketIds[nextLookup()]);
+    }
+
+    /**
+     * What binding a cell of a single bucket costs.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long bucketImageId() {
+        int lookup = nextLookup();
+
+        return mIndex.getImageId(mLookupBuckets[lookup], mLookupBucketPositions[lookup]);
+    }
+
+    /**
+     * What mapping a change of the whole gallery to a bucket costs.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int bucketPosition() {
+        int lookup = nextLookup();
+
+        return mIndex.getBucketPosition(mLookupBuckets[lookup], mLookupPositions[lookup]);
+    }
+
+    private int nextLookup() {
+        mLookup = (mLookup + 1) & (LOOKUP_COUNT - 1);
+
+        return mLookup;
+    }
+
+    /**
+     * @param pages Receives the pages that GalleryAccess would publish. Null to skip building them.
+     */
+    private static GalleryIndex scan(SyntheticCursor cursor, Blackhole pages) {
+        cursor.moveToPosition(-1);
+
+        GalleryIndex.Builder builder = new GalleryIndex.Builder(cursor.getCount(), true);
+
+        int nextPage = FIRST_PAGE_SIZE;
+
+        while (cursor.moveToNext()) {
+            long bucketId = cursor.getLong(SyntheticCursor.COLUMN_BUCKET_ID);
+
+            String bucketName = builder.hasBucket(bucketId) ? null : cursor.getString(SyntheticCursor.COLUMN_BUCKET_DISPLAY_NAME);
+
+            builder.addImage(cursor.getLong(SyntheticCursor.COLUMN_ID), cursor.getLong(SyntheticCursor.COLUMN_DATE_MODIFIED),
+                    cursor.getInt(SyntheticCursor.COLUMN_ORIENTATION), 0, bucketId, bucketName);
+
+            if (pages != null && builder.getImageCount() == nextPage) {
+                pages.consume(builder.build());
+
+                nextPage *= 2;
+            }
+        }
+
+        return builder.build();
+    }
+
+}
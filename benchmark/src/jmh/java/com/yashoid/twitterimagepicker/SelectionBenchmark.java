@@ -0,0 +1,80 @@
+package com.yashoid.twitterimagepicker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The selection operations GalleryFragment does on every bind and click.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SelectionBenchmark {
+
+    private static final int IMAGE_COUNT = 8192;
+
+    @Param({ "7", "100", "1000", "8192" })
+    public int selectedCount;
+
+    private long[] mSelectedIds;
+
+    private SelectionStore mSelection;
+
+    private Random mRandom = new Random(3);
+
+    @Setup
+    public void setup() {
+        mSelection = new SelectionStore(selectedCount);
+        mSelectedIds = new long[selectedCount];
+
+        for (int i = 0; i < selectedCount; i++) {
+            mSelectedIds[i] = i * (IMAGE_COUNT / selectedCount);
+
+            mSelection.add(mSelectedIds[i]);
+        }
+    }
+
+    /**
+     * Whether a cell being bound is checked.
+     */
+    @Benchmark
+    public boolean isSelected() {
+        return mSelection.contains(mRandom.nextInt(IMAGE_COUNT));
+    }
+
+    /**
+     * Unselecting a selected image and selecting it again, as a click does.
+     */
+    @Benchmark
+    public boolean toggle() {
+        long imageId = mSelectedIds[mRandom.nextInt(selectedCount)];
+
+        mSelection.remove(imageId);
+
+        return mSelection.add(imageId);
+    }
+
+    /**
+     * Selecting every image of a bucket and clearing the selection again.
+     */
+    @Benchmark
+    public int selectAll() {
+        mSelection.clear();
+
+        for (long imageId = 0; imageId < IMAGE_COUNT; imageId++) {
+            mSelection.add(imageId);
+        }
+
+        return mSelection.size();
+    }
+
+}
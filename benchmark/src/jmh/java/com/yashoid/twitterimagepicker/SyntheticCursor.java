@@ -0,0 +1,106 @@
+package com.yashoid.twitterimagepicker;
+
+import java.util.Random;
+
+/**
+ * Stands in for the MediaStore cursor that GalleryAccess scans. Rows are sorted by DATE_MODIFIED
+ * descending like the real query and spread over a fixed number of buckets.
+ */
+class SyntheticCursor {
+
+    static final int COLUMN_ID = 0;
+    static final int COLUMN_BUCKET_ID = 1;
+    static final int COLUMN_BUCKET_DISPLAY_NAME = 2;
+    static final int COLUMN_DATE_MODIFIED = 3;
+    static final int COLUMN_ORIENTATION = 4;
+
+    private long[] mIds;
+    private long[] mDates;
+    private int[] mOrientations;
+    private long[] mBucketIds;
+    private String[] mBucketNames;
+
+    private int mPosition = -1;
+
+    SyntheticCursor(int rowCount, int bucketCount, long seed) {
+        Random random = new Random(seed);
+
+        mIds = new long[rowCount];
+        mDates = new long[rowCount];
+        mOrientations = new int[rowCount];
+        mBucketIds = new long[rowCount];
+        mBucketNames = new String[rowCount];
+
+        long[] bucketIds = new long[bucketCount];
+        String[] bucketNames = new String[bucketCount];
+
+        for (int bucketIndex = 0; bucketIndex < bucketCount; bucketIndex++) {
+            // BUCKET_ID is the hash of the directory path.
+            bucketIds[bucketIndex] = random.nextInt();
+            bucketNames[bucketIndex] = "Bucket " + bucketIndex;
+        }
+
+        long date = 1600000000L;
+
+        for (int row = 0; row < rowCount; row++) {
+            // A few buckets hold most of the images, like Camera and Screenshots.
+            int bucketIndex = (int) (bucketCount * Math.pow(random.nextDouble(), 3));
+
+            mIds[row] = rowCount - row + random.nextInt(16);
+            mDates[row] = date;
+            mOrientations[row] = random.nextInt(8) == 0 ? 90 : 0;
+            mBucketIds[row] = bucketIds[bucketIndex];
+            mBucketNames[row] = bucketNames[bucketIndex];
+
+            date -= random.nextInt(600);
+        }
+    }
+
+    public int getCount() {
+        return mIds.length;
+    }
+
+    public void moveToPosition(int position) {
+        mPosition = position;
+    }
+
+    public boolean moveToNext() {
+        if (mPosition + 1 >= mIds.length) {
+            return false;
+        }
+
+        mPosition++;
+        return true;
+    }
+
+    public long getLong(int column) {
+        switch (column) {
+            case COLUMN_ID:
+                return mIds[mPosition];
+            case COLUMN_BUCKET_ID:
+                return mBucketIds[mPosition];
+            case COLUMN_DATE_MODIFIED:
+                return mDates[mPosition];
+            default:
+                throw new IllegalArgumentException("Not a long column " + column);
+        }
+    }
+
+    public int getInt(int column) {
+        if (column != COLUMN_ORIENTATION) {
+            throw new IllegalArgumentException("Not an int column " + column);
+        }
+
+        return mOrientations[mPosition];
+    }
+
+    public String getString(int column) {
+        if (column != COLUMN_BUCKET_DISPLAY_NAME) {
+            throw new IllegalArgumentException("Not a string column " + column);
+        }
+
+        // CursorWindow creates a new string on every call.
+        return new String(mBucketNames[mPosition]);
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.yashoid.twitterimagepicker;
+
+import android.database.AbstractCursor;
+import android.provider.MediaStore;
+
+/**
+ * Cursor over the rows of a {@link FakeImageTable}. Values are computed as they are read. Moving
+ * into a new window of rows waits like a real cursor does while it fills its CursorWindow.
+ */
+class FakeImageCursor extends AbstractCursor {
+
+    // About how many MediaStore rows fit in the 2 MB window of a real cursor.
+    static final int WINDOW_ROW_COUNT = 2000;
+
+    static final String[] COLUMNS = {
+            MediaStore.Images.Media._ID,
+            MediaStore.Images.Media.DISPLAY_NAME,
+            MediaStore.Images.Media.BUCKET_ID,
+            "bucket_display_name",
+            MediaStore.Images.Media.DATE_MODIFIED,
+            MediaStore.Images.Media.ORIENTATION
+    };
+
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_DISPLAY_NAME = 1;
+    private static final int COLUMN_BUCKET_ID = 2;
+    private static final int COLUMN_BUCKET_DISPLAY_NAME = 3;
+    private static final int COLUMN_DATE_MODIFIED = 4;
+    private static final int COLUMN_ORIENTATION = 5;
+
+    private FakeImageTable mTable;
+
+    // Rows of the table in the cursor, or null for all of them.
+    private int[] mRows;
+
+    private String[] mColumnNames;
+    private int[] mColumns;
+
+    private long mWindowDelay;
+
+    /**
+     * @param rows Rows of the table that matched the selection, or null for all.
+     * @param projection null for all the columns.
+     * @param windowDelay Milliseconds to wait every time a new window of rows is entered.
+     */
+    FakeImageCursor(FakeImageTable table, int[] rows, String[] projection, long windowDelay) {
+        mTable = table;
+        mRows = rows;
+        mColumnNames = projection == null ? COLUMNS : projection;
+        mWindowDelay = windowDelay;
+
+        mColumns = new int[mColumnNames.length];
+
+        for (int i = 0; i < mColumnNames.length; i++) {
+            mColumns[i] = getTableColumn(mColumnNames[i]);
+
+            if (mColumns[i] == -1) {
+                throw new IllegalArgumentException("Unknown column " + mColumnNames[i]);
+            }
+        }
+    }
+
+    static int getTableColumn(String name) {
+        for (int column = 0; column < COLUMNS.length; column++) {
+            if (COLUMNS[column].equals(name)) {
+                return column;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return The value of a numeric column for the given row of the table.
+     */
+    static long getLong(FakeImageTable table, int column, int row) {
+        switch (column) {
+            case COLUMN_ID:
+                return table.getImageId(row);
+            case COLUMN_BUCKET_ID:
+                return table.getBucketId(row);
+            case COLUMN_DATE_MODIFIED:
+                return table.getDateModified(row);
+            case COLUMN_ORIENTATION:
+                return table.getOrientation(row);
+            default:
+                throw new IllegalArgumentException("Not a numeric column " + COLUMNS[column]);
+        }
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        if (mWindowDelay > 0 && (oldPosition < 0 || oldPosition / WINDOW_ROW_COUNT != newPosition / WINDOW_ROW_COUNT)) {
+            try {
+                Thread.sleep(mWindowDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int getCount() {
+        return mRows == null ? mTable.getRowCount() : mRows.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    private int getRow() {
+        int position = getPosition();
+
+        return mRows == null ? position : mRows[position];
+    }
+
+    @Override
+    public String getString(int column) {
+        int row = getRow();
+
+        switch (mColumns[column]) {
+            case COLUMN_DISPLAY_NAME:
+                return mTable.getDisplayName(row);
+            case COLUMN_BUCKET_DISPLAY_NAME:
+                // CursorWindow creates a new string on every call.
+                return new String(mTable.getBucketName(row));
+            default:
+                return String.valueOf(getLong(column));
+        }
+    }
+
+    @Override
+    public long getLong(int column) {
+        return getLong(mTable, mColumns[column], getRow());
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return false;
+    }
+
+}
@@ -0,0 +1,218 @@
+package com.yashoid.twitterimagepicker;
+
+/**
+ * Rows of a fake MediaStore.Images.Media table. Every value is computed from the row and the seed
+ * so a table of any size takes no memory and is the same on every run. Rows are in the order of
+ * the GalleryAccess query which is DATE_MODIFIED descending.
+ *
+ * A table never changes. {@link #change(int, int, int)} makes a new one with images inserted,
+ * deleted and modified, which holds the ids and dates of its rows in arrays.
+ */
+class FakeImageTable {
+
+    private static final long NEWEST_DATE_MODIFIED = 1600000000L;
+
+    private int mRowCount;
+    private int mBucketCount;
+    private double mBucketSkew;
+    private long mSeed;
+
+    private long[] mBucketIds;
+    private String[] mBucketNames;
+
+    // Rows the table was generated with.
+    private int mGeneratedRowCount;
+
+    // Like MediaStore, ids of deleted images are not used again.
+    private long mNextImageId;
+
+    // Null until the table is changed. The generated row a row takes its bucket and orientation from.
+    private long[] mImageIds = null;
+    private long[] mDatesModified = null;
+    private int[] mSourceRows = null;
+
+    /**
+     * @param bucketSkew 1 spreads the images evenly over the buckets. Larger values put most of
+     *                   them in the first few buckets, the way Camera and Screenshots usually are.
+     */
+    FakeImageTable(int rowCount, int bucketCount, double bucketSkew, long seed) {
+        mRowCount = rowCount;
+        mBucketCount = Math.max(1, bucketCount);
+        mBucketSkew = bucketSkew;
+        mSeed = seed;
+
+        mGeneratedRowCount = rowCount;
+        mNextImageId = rowCount + 1;
+
+        mBucketIds = new long[mBucketCount];
+        mBucketNames = new String[mBucketCount];
+
+        for (int bucketIndex = 0; bucketIndex < mBucketCount; bucketIndex++) {
+            // BUCKET_ID is the hash of the directory path.
+            mBucketIds[bucketIndex] = (int) mix(mSeed - bucketIndex - 1);
+            mBucketNames[bucketIndex] = "Bucket " + bucketIndex;
+        }
+    }
+
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    public int getBucketCount() {
+        return mBucketCount;
+    }
+
+    public long getImageId(int row) {
+        if (mImageIds != null) {
+            return mImageIds[row];
+        }
+
+        // Newer images have larger ids.
+        return mRowCount - row;
+    }
+
+    public long getDateModified(int row) {
+        if (mDatesModified != null) {
+            return mDatesModified[row];
+        }
+
+        return NEWEST_DATE_MODIFIED - row * 7L;
+    }
+
+    public int getOrientation(int row) {
+        row = getSourceRow(row);
+
+        return (mix(mSeed + row) & 7) == 0 ? 90 : 0;
+    }
+
+    public int getBucketIndex(int row) {
+        row = getSourceRow(row);
+
+        // Uniform in [0, 1) from the top 53 bits.
+        double random = (mix(mSeed ^ (row * 0x9E3779B97F4A7C15L)) >>> 11) * 0x1.0p-53;
+
+        return Math.min(mBucketCount - 1, (int) (mBucketCount * Math.pow(random, mBucketSkew)));
+    }
+
+    public long getBucketId(int row) {
+        return mBucketIds[getBucketIndex(row)];
+    }
+
+    public String getBucketName(int row) {
+        return mBucketNames[getBucketIndex(row)];
+    }
+
+    public String getDisplayName(int row) {
+        return "IMG_" + getImageId(row) + ".jpg";
+    }
+
+    private int getSourceRow(int row) {
+        return mSourceRows == null ? row : mSourceRows[row];
+    }
+
+    /**
+     * @return A copy of this table with images inserted at the top, images spread over the table
+     * deleted, and other images spread over it modified so they move to the top. Modified images
+     * keep their id and get a DATE_MODIFIED newer than any other.
+     */
+    public FakeImageTable change(int insertCount, int deleteCount, int modifyCount) {
+        int rowCount = mRowCount;
+
+        deleteCount = Math.min(deleteCount, rowCount);
+        modifyCount = Math.min(modifyCount, rowCount - deleteCount);
+
+        // Every step-th row is deleted, and every step-th row half a step later is modified.
+        boolean[] deleted = new boolean[rowCount];
+        boolean[] modified = new boolean[rowCount];
+
+        spread(deleted, deleteCount, 0, null);
+        spread(modified, modifyCount, rowCount / Math.max(1, 2 * modifyCount), deleted);
+
+        int newRowCount = rowCount - deleteCount + insertCount;
+
+        FakeImageTable table = new FakeImageTable(newRowCount, mBucketCount, mBucketSkew, mSeed);
+        table.mGeneratedRowCount = mGeneratedRowCount;
+        table.mNextImageId = mNextImageId + insertCount;
+        table.mImageIds = new long[newRowCount];
+        table.mDatesModified = new long[newRowCount];
+        table.mSourceRows = new int[newRowCount];
+
+        long newestDateModified = rowCount > 0 ? getDateModified(0) : NEWEST_DATE_MODIFIED;
+        int newRow = insertCount + modifyCount;
+
+        // Newest first, so the dates count down from the top.
+        long dateModified = newestDateModified + newRow * 7L;
+
+        for (int i = 0; i < insertCount; i++) {
+            long imageId = mNextImageId + insertCount - 1 - i;
+
+            table.setRow(i, imageId, dateModified, (int) (imageId % Math.max(1, mGeneratedRowCount)));
+
+            dateModified -= 7;
+        }
+
+        int modifiedRow = insertCount;
+
+        for (int row = 0; row < rowCount; row++) {
+            if (modified[row]) {
+                table.setRow(modifiedRow++, getImageId(row), dateModified, getSourceRow(row));
+
+                dateModified -= 7;
+            }
+            else if (!deleted[row]) {
+                table.setRow(newRow++, getImageId(row), getDateModified(row), getSourceRow(row));
+            }
+        }
+
+        return table;
+    }
+
+    private void setRow(int row, long imageId, long dateModified, int sourceRow) {
+        mImageIds[row] = imageId;
+        mDatesModified[row] = dateModified;
+        mSourceRows[row] = sourceRow;
+    }
+
+    /**
+     * Marks count rows evenly spread from the offset on, skipping the ones that are excluded.
+     */
+    private static void spread(boolean[] marked, int count, int offset, boolean[] excluded) {
+        if (count == 0) {
+            return;
+        }
+
+        int step = marked.length / count;
+        int markedCount = 0;
+
+        for (int row = offset; markedCount < count; row = (row + step) % marked.length) {
+            while (marked[row] || (excluded != null && excluded[row])) {
+                row = (row + 1) % marked.length;
+            }
+
+            marked[row] = true;
+            markedCount++;
+        }
+    }
+
+    /**
+     * @return The number of rows in each bucket, found by going through all of them.
+     */
+    public int[] countBucketImages() {
+        int[] counts = new int[mBucketCount];
+
+        for (int row = 0; row < mRowCount; row++) {
+            counts[getBucketIndex(row)]++;
+        }
+
+        return counts;
+    }
+
+    // SplitMix64 finalizer.
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+
+        return value ^ (value >>> 31);
+    }
+
+}
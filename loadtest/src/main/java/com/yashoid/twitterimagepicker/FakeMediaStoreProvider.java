@@ -0,0 +1,230 @@
+package com.yashoid.twitterimagepicker;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stands in for MediaStore.Images.Media under the media authority. The rows come from a
+ * {@link FakeImageTable} so the gallery can be made as large as needed and is the same on every
+ * run. Queries and reading through the cursor can be made slow.
+ *
+ * Selections are the terms GalleryAccess uses: "column op ?" with op one of =, &lt;, &gt;, &lt;=
+ * and &gt;=, joined by OR. Rows are always returned in DATE_MODIFIED descending order.
+ *
+ * The gallery is changed with {@link #changeImages(int, int, int)} rather than through insert,
+ * delete and update, the way the camera and other apps change the real one.
+ */
+public class FakeMediaStoreProvider extends ContentProvider {
+
+    private static final String SORT = MediaStore.Images.Media.DATE_MODIFIED + " DESC";
+
+    private volatile FakeImageTable mTable = new FakeImageTable(0, 1, 1, 0);
+
+    private volatile long mQueryDelay = 0;
+    private volatile long mWindowDelay = 0;
+
+    private AtomicInteger mQueryCount = new AtomicInteger(0);
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    /**
+     * @param bucketSkew 1 spreads the images evenly over the buckets. Larger values put most of
+     *                   them in the first few buckets.
+     */
+    public void setImages(int imageCount, int bucketCount, double bucketSkew, long seed) {
+        mTable = new FakeImageTable(imageCount, bucketCount, bucketSkew, seed);
+    }
+
+    /**
+     * Inserts, deletes and modifies images spread over the gallery, then notifies the observers of
+     * the images table.
+     * @param modifyCount Images that get a newer DATE_MODIFIED and so move to the top.
+     */
+    public void changeImages(int insertCount, int deleteCount, int modifyCount) {
+        mTable = mTable.change(insertCount, deleteCount, modifyCount);
+
+        getContext().getContentResolver().notifyChange(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, null);
+    }
+
+    public int getImageCount() {
+        return mTable.getRowCount();
+    }
+
+    /**
+     * @param position In DATE_MODIFIED descending order.
+     */
+    public long getImageId(int position) {
+        return mTable.getImageId(position);
+    }
+
+    public int getBucketCount() {
+        return mTable.getBucketCount();
+    }
+
+    /**
+     * @return The number of images in each bucket in the order the buckets are first seen.
+     */
+    public int[] getBucketImageCounts() {
+        FakeImageTable table = mTable;
+
+        int[] counts = table.countBucketImages();
+        int[] orderedCounts = new int[counts.length];
+
+        boolean[] seen = new boolean[counts.length];
+        int seenCount = 0;
+
+        for (int row = 0; row < table.getRowCount() && seenCount < counts.length; row++) {
+            int bucketIndex = table.getBucketIndex(row);
+
+            if (!seen[bucketIndex]) {
+                seen[bucketIndex] = true;
+
+                orderedCounts[seenCount++] = counts[bucketIndex];
+            }
+        }
+
+        return Arrays.copyOf(orderedCounts, seenCount);
+    }
+
+    /**
+     * @param queryDelay Milliseconds every query waits before returning its cursor.
+     */
+    public void setQueryDelay(long queryDelay) {
+        mQueryDelay = queryDelay;
+    }
+
+    /**
+     * @param windowDelay Milliseconds a cursor waits every time it moves into the next
+     *                    {@link FakeImageCursor#WINDOW_ROW_COUNT} rows.
+     */
+    public void setWindowDelay(long windowDelay) {
+        mWindowDelay = windowDelay;
+    }
+
+    public int getQueryCount() {
+        return mQueryCount.get();
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        if (!uri.equals(MediaStore.Images.Media.EXTERNAL_CONTENT_URI)) {
+            return null;
+        }
+
+        if (sortOrder != null && !sortOrder.equals(SORT)) {
+            throw new UnsupportedOperationException("Unsupported sort order " + sortOrder);
+        }
+
+        mQueryCount.incrementAndGet();
+
+        FakeImageTable table = mTable;
+
+        int[] rows = selection == null ? null : select(table, selection, selectionArgs);
+
+        if (mQueryDelay > 0) {
+            try {
+                Thread.sleep(mQueryDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return new FakeImageCursor(table, rows, projection, mWindowDelay);
+    }
+
+    private static int[] select(FakeImageTable table, String selection, String[] selectionArgs) {
+        String[] terms = selection.split(" OR ");
+
+        if (selectionArgs == null || selectionArgs.length != terms.length) {
+            throw new IllegalArgumentException("Expected an argument for each term of " + selection);
+        }
+
+        int[] columns = new int[terms.length];
+        String[] operators = new String[terms.length];
+        long[] values = new long[terms.length];
+
+        for (int i = 0; i < terms.length; i++) {
+            String[] parts = terms[i].trim().split(" ");
+
+            if (parts.length != 3 || !parts[2].equals("?")) {
+                throw new UnsupportedOperationException("Unsupported selection " + selection);
+            }
+
+            columns[i] = FakeImageCursor.getTableColumn(parts[0]);
+            operators[i] = parts[1];
+            values[i] = Long.parseLong(selectionArgs[i]);
+
+            if (columns[i] == -1) {
+                throw new IllegalArgumentException("Unknown column " + parts[0]);
+            }
+        }
+
+        int[] rows = new int[table.getRowCount()];
+        int rowCount = 0;
+
+        for (int row = 0; row < table.getRowCount(); row++) {
+            for (int i = 0; i < terms.length; i++) {
+                if (matches(FakeImageCursor.getLong(table, columns[i], row), operators[i], values[i])) {
+                    rows[rowCount++] = row;
+                    break;
+                }
+            }
+        }
+
+        return Arrays.copyOf(rows, rowCount);
+    }
+
+    private static boolean matches(long value, String operator, long argument) {
+        switch (operator) {
+            case "=":
+                return value == argument;
+            case "<":
+                return value < argument;
+            case ">":
+                return value > argument;
+            case "<=":
+                return value <= argument;
+            case ">=":
+                return value >= argument;
+            default:
+                throw new UnsupportedOperationException("Unsupported operator " + operator);
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return "vnd.android.cursor.dir/image";
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException("The fake gallery is changed with changeImages().");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("The fake gallery is changed with changeImages().");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("The fake gallery is changed with changeImages().");
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.yashoid.twitterimagepicker;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes blank thumbnails after a fixed delay that stands in for decoding. Counts the loads and how
+ * many ran at the same time.
+ */
+public class FakeThumbnailLoader implements ThumbnailLoader {
+
+    private volatile long mDecodeDelay;
+
+    private AtomicInteger mLoadCount = new AtomicInteger(0);
+    private AtomicInteger mActiveLoadCount = new AtomicInteger(0);
+    private AtomicInteger mMaxActiveLoadCount = new AtomicInteger(0);
+
+    /**
+     * @param decodeDelay Milliseconds every load takes.
+     */
+    public FakeThumbnailLoader(long decodeDelay) {
+        mDecodeDelay = decodeDelay;
+    }
+
+    public void setDecodeDelay(long decodeDelay) {
+        mDecodeDelay = decodeDelay;
+    }
+
+    public int getLoadCount() {
+        return mLoadCount.get();
+    }
+
+    public int getMaxActiveLoadCount() {
+        return mMaxActiveLoadCount.get();
+    }
+
+    @Override
+    public Bitmap loadThumbnail(Uri imageUri, int orientation, int size, Bitmap.Config opaqueConfig, BitmapPool bitmapPool) {
+        int activeLoadCount = mActiveLoadCount.incrementAndGet();
+
+        int maxActiveLoadCount;
+
+        while ((maxActiveLoadCount = mMaxActiveLoadCount.get()) < activeLoadCount) {
+            if (mMaxActiveLoadCount.compareAndSet(maxActiveLoadCount, activeLoadCount)) {
+                break;
+            }
+        }
+
+        try {
+            if (mDecodeDelay > 0) {
+                Thread.sleep(mDecodeDelay);
+            }
+
+            Bitmap bitmap = bitmapPool.get(size, size, opaqueConfig);
+
+            return bitmap != null ? bitmap : Bitmap.createBitmap(size, size, opaqueConfig);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            mLoadCount.incrementAndGet();
+            mActiveLoadCount.decrementAndGet();
+        }
+    }
+
+}
@@ -0,0 +1,291 @@
+package com.yashoid.twitterimagepicker;
+
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Prepares GalleryAccess over fake galleries of increasing size, changes the gallery under it and
+ * scrolls through the thumbnails of the whole gallery.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(sdk = 28)
+public class GalleryAccessLoadTest {
+
+    // How far the fling goes. Images a frame is about what a fast fling moves on a phone.
+    private static final int FLING_IMAGE_COUNT = 6000;
+    private static final int FLING_IMAGES_PER_FRAME = 3 * 8;
+
+    private static final long DELIVERY_TIMEOUT = 10000;
+    private static final long UPDATE_TIMEOUT = 10000;
+
+    // Of every 1000 images, like a burst of photos, a cleanup and some edits.
+    private static final int INSERTED_PER_1000_IMAGES = 20;
+    private static final int DELETED_PER_1000_IMAGES = 30;
+    private static final int MODIFIED_PER_1000_IMAGES = 10;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} images")
+    public static Collection<Object[]> getImageCounts() {
+        return Arrays.asList(new Object[][] { { 1000 }, { 10000 }, { 100000 } });
+    }
+
+    private int mImageCount;
+
+    private FakeMediaStoreProvider mProvider;
+    private GalleryAccess mGalleryAccess;
+
+    private GalleryAccess.MetricsListener mMetricsListener = new GalleryAccess.MetricsListener() {
+
+        @Override
+        public void onPrepared(GalleryAccess galleryAccess, long durationMillis, int imageCount) { }
+
+        @Override
+        public void onFirstThumbnail(GalleryAccess galleryAccess, long millisSincePrepare) { }
+
+        @Override
+        public void onThumbnailLoaded(GalleryAccess galleryAccess, int source, long latencyMillis) { }
+
+    };
+
+    public GalleryAccessLoadTest(int imageCount) {
+        mImageCount = imageCount;
+    }
+
+    @Before
+    public void setUp() {
+        GalleryAccess.releaseInstance();
+
+        mProvider = LoadTestHelper.installMediaStore(mImageCount);
+
+        mGalleryAccess = GalleryAccess.getInstance(ApplicationProvider.getApplicationContext());
+        mGalleryAccess.registerMetricsListener(mMetricsListener);
+    }
+
+    @After
+    public void tearDown() {
+        mGalleryAccess.unregisterMetricsListener(mMetricsListener);
+
+        GalleryAccess.releaseInstance();
+
+        LoadTestHelper.assertNoWorkerThreads();
+    }
+
+    @Test
+    public void prepareRetainsBoundedHeap() {
+        long baseline = LoadTestHelper.getRetainedHeap();
+
+        prepare();
+
+        LoadTestHelper.assertRetainedHeapBounded(mImageCount, LoadTestHelper.getRetainedHeap() - baseline);
+
+        assertEquals(mImageCount, mGalleryAccess.getImageCount());
+        assertEquals(mProvider.getBucketImageCounts().length, mGalleryAccess.getBucketCount());
+
+        int bucketImageCount = 0;
+
+        for (int bucketIndex = 0; bucketIndex < mGalleryAccess.getBucketCount(); bucketIndex++) {
+            bucketImageCount += mGalleryAccess.getImageCount(bucketIndex);
+        }
+
+        assertEquals(mImageCount, bucketImageCount);
+    }
+
+    @Test
+    public void updateFollowsMediaStoreChanges() {
+        prepare();
+
+        final int[] deltaCount = new int[1];
+
+        mGalleryAccess.registerOnIndexChangedListener(new GalleryAccess.OnIndexChangedListener() {
+
+            @Override
+            public void onIndexChanged(GalleryAccess galleryAccess, GalleryIndexChange change) {
+                if (!change.isAppendOnly()) {
+                    deltaCount[0]++;
+                }
+            }
+
+        });
+
+        mProvider.changeImages(mImageCount / 1000 * INSERTED_PER_1000_IMAGES,
+                mImageCount / 1000 * DELETED_PER_1000_IMAGES, mImageCount / 1000 * MODIFIED_PER_1000_IMAGES);
+
+        LoadTestHelper.pumpUntil(new LoadTestHelper.Condition() {
+
+            @Override
+            public boolean isMet() {
+                return isInSync();
+            }
+
+        }, UPDATE_TIMEOUT, "the index to follow the changes");
+
+        assertTrue("Updated with " + deltaCount[0] + " delta changes", deltaCount[0] > 0);
+
+        int bucketImageCount = 0;
+
+        for (int bucketIndex = 0; bucketIndex < mGalleryAccess.getBucketCount(); bucketIndex++) {
+            bucketImageCount += mGalleryAccess.getImageCount(bucketIndex);
+        }
+
+        assertEquals(mProvider.getImageCount(), bucketImageCount);
+    }
+
+    @Test
+    public void flingKeepsThumbnailQueuesBounded() {
+        prepare();
+
+        FakeThumbnailLoader thumbnailLoader = new FakeThumbnailLoader(LoadTestHelper.DECODE_DELAY);
+        mGalleryAccess.setThumbnailLoader(thumbnailLoader);
+
+        int flingImageCount = Math.min(FLING_IMAGE_COUNT, mImageCount - LoadTestHelper.SCREEN_IMAGE_COUNT);
+
+        Cell[] screen = new Cell[0];
+
+        for (int first = 0; first <= flingImageCount; first += FLING_IMAGES_PER_FRAME) {
+            screen = bindScreen(screen, first);
+
+            LoadTestHelper.pumpFrame();
+        }
+
+        final Cell[] lastScreen = screen;
+
+        LoadTestHelper.pumpUntil(new LoadTestHelper.Condition() {
+
+            @Override
+            public boolean isMet() {
+                for (Cell cell: lastScreen) {
+                    if (cell.mThumbnail == null) {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+
+        }, DELIVERY_TIMEOUT, "the last screen of thumbnails");
+
+        for (Cell cell: lastScreen) {
+            assertNotNull(mGalleryAccess.getCachedThumbnail(cell.mImageId));
+        }
+
+        GalleryAccess.Metrics metrics = mGalleryAccess.getMetrics();
+
+        String measured = mImageCount + " images: scrolled over " + flingImageCount + ", loaded " +
+                thumbnailLoader.getLoadCount() + ", max queue depth " + metrics.getMaxQueueDepth() +
+                " (budget " + LoadTestHelper.MAX_QUEUE_DEPTH + "), cancelled " + metrics.getCancelledRequestCount();
+
+        assertTrue(measured, metrics.getMaxQueueDepth() <= LoadTestHelper.MAX_QUEUE_DEPTH);
+
+        // Cells that were on screen for a frame should mostly be cancelled before they are decoded.
+        if (flingImageCount > 10 * LoadTestHelper.SCREEN_IMAGE_COUNT) {
+            assertTrue(measured, thumbnailLoader.getLoadCount() < flingImageCount / 2);
+        }
+    }
+
+    private void prepare() {
+        mGalleryAccess.prepare();
+
+        LoadTestHelper.pumpUntil(new LoadTestHelper.Condition() {
+
+            @Override
+            public boolean isMet() {
+                return mGalleryAccess.isPrepared();
+            }
+
+        }, LoadTestHelper.PREPARE_TIMEOUT, "GalleryAccess to prepare");
+    }
+
+    private boolean isInSync() {
+        if (mGalleryAccess.getImageCount() != mProvider.getImageCount()) {
+            return false;
+        }
+
+        for (int position = 0; position < mProvider.getImageCount(); position++) {
+            if (mGalleryAccess.getImageId(position) != mProvider.getImageId(position)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Requests the thumbnails of the screen that starts at the given position the way bound view
+     * holders do, and cancels the ones that went off screen.
+     */
+    private Cell[] bindScreen(Cell[] previousScreen, int first) {
+        Cell[] screen = new Cell[LoadTestHelper.SCREEN_IMAGE_COUNT];
+
+        for (int i = 0; i < screen.length; i++) {
+            long imageId = mGalleryAccess.getImageId(first + i);
+
+            for (Cell previousCell: previousScreen) {
+                if (previousCell != null && previousCell.mImageId == imageId) {
+                    screen[i] = previousCell;
+                    break;
+                }
+            }
+
+            if (screen[i] == null) {
+                screen[i] = new Cell(imageId);
+            }
+        }
+
+        for (Cell previousCell: previousScreen) {
+            if (!Arrays.asList(screen).contains(previousCell)) {
+                previousCell.unbind();
+            }
+        }
+
+        return screen;
+    }
+
+    private class Cell implements GalleryAccess.OnThumbnailReadyReceiver {
+
+        private long mImageId;
+
+        private GalleryAccess.ThumbnailRequest mRequest = null;
+
+        private volatile Drawable mThumbnail;
+
+        private Cell(long imageId) {
+            mImageId = imageId;
+
+            mThumbnail = mGalleryAccess.getCachedThumbnail(imageId);
+
+            if (mThumbnail == null) {
+                mRequest = mGalleryAccess.loadThumbnail(imageId, this);
+            }
+        }
+
+        private void unbind() {
+            if (mRequest != null) {
+                mRequest.cancel();
+                mRequest = null;
+            }
+        }
+
+        @Override
+        public void onThumbnailReady(Uri imageUri, Drawable thumbnail) {
+            mThumbnail = thumbnail;
+            mRequest = null;
+        }
+
+    }
+
+}
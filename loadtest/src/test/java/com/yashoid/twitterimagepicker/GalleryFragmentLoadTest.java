@@ -0,0 +1,185 @@
+package com.yashoid.twitterimagepicker;
+
+import android.view.ViewGroup;
+
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Opens the picker over fake galleries of increasing size and flings through the grid the way a
+ * user would, with slow thumbnail decoding. Opening the picker is held to the same heap budget as
+ * preparing GalleryAccess alone.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(sdk = 28)
+public class GalleryFragmentLoadTest {
+
+    private static final long DELIVERY_TIMEOUT = 10000;
+
+    private static final int FLING_IMAGE_COUNT = 6000;
+    private static final int FLING_ROWS_PER_FRAME = 8;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} images")
+    public static Collection<Object[]> getImageCounts() {
+        return Arrays.asList(new Object[][] { { 1000 }, { 10000 }, { 100000 } });
+    }
+
+    private int mImageCount;
+
+    private GalleryAccess mGalleryAccess;
+    private FakeThumbnailLoader mThumbnailLoader;
+
+    private ActivityController<TwitterImagePickerActivity> mActivityController;
+
+    private GalleryAccess.MetricsListener mMetricsListener = new GalleryAccess.MetricsListener() {
+
+        @Override
+        public void onPrepared(GalleryAccess galleryAccess, long durationMillis, int imageCount) { }
+
+        @Override
+        public void onFirstThumbnail(GalleryAccess galleryAccess, long millisSincePrepare) { }
+
+        @Override
+        public void onThumbnailLoaded(GalleryAccess galleryAccess, int source, long latencyMillis) { }
+
+    };
+
+    public GalleryFragmentLoadTest(int imageCount) {
+        mImageCount = imageCount;
+    }
+
+    @Before
+    public void setUp() {
+        GalleryAccess.releaseInstance();
+
+        LoadTestHelper.installMediaStore(mImageCount);
+
+        mThumbnailLoader = new FakeThumbnailLoader(LoadTestHelper.DECODE_DELAY);
+
+        mGalleryAccess = GalleryAccess.getInstance(ApplicationProvider.getApplicationContext());
+        mGalleryAccess.setThumbnailLoader(mThumbnailLoader);
+        mGalleryAccess.registerMetricsListener(mMetricsListener);
+    }
+
+    @After
+    public void tearDown() {
+        if (mActivityController != null) {
+            mActivityController.pause().stop().destroy();
+        }
+
+        mGalleryAccess.unregisterMetricsListener(mMetricsListener);
+
+        GalleryAccess.releaseInstance();
+
+        LoadTestHelper.assertNoWorkerThreads();
+    }
+
+    @Test
+    public void openRetainsBoundedHeap() {
+        long baseline = LoadTestHelper.getRetainedHeap();
+
+        open();
+
+        LoadTestHelper.assertRetainedHeapBounded(mImageCount, LoadTestHelper.getRetainedHeap() - baseline);
+
+        ViewGroup container = mActivityController.get().findViewById(R.id.container);
+        RecyclerView recyclerView = (RecyclerView) container.getChildAt(0);
+
+        assertEquals(mImageCount, recyclerView.getAdapter().getItemCount());
+    }
+
+    @Test
+    public void flingDeliversVisibleThumbnails() {
+        open();
+
+        ViewGroup container = mActivityController.get().findViewById(R.id.container);
+        final RecyclerView recyclerView = (RecyclerView) container.getChildAt(0);
+        final GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+
+        LoadTestHelper.pumpFrame();
+
+        assertEquals(mImageCount, recyclerView.getAdapter().getItemCount());
+
+        int rowHeight = recyclerView.getWidth() / layoutManager.getSpanCount();
+        int flingImageCount = Math.min(FLING_IMAGE_COUNT, mImageCount);
+
+        assertTrue("The grid was not laid out", rowHeight > 0);
+
+        while (layoutManager.findLastVisibleItemPosition() < flingImageCount - 1) {
+            int lastVisiblePosition = layoutManager.findLastVisibleItemPosition();
+
+            recyclerView.scrollBy(0, rowHeight * FLING_ROWS_PER_FRAME);
+
+            LoadTestHelper.pumpFrame();
+
+            if (layoutManager.findLastVisibleItemPosition() == lastVisiblePosition) {
+                // The end of the gallery.
+                break;
+            }
+        }
+
+        LoadTestHelper.pumpUntil(new LoadTestHelper.Condition() {
+
+            @Override
+            public boolean isMet() {
+                int first = layoutManager.findFirstVisibleItemPosition();
+                int last = layoutManager.findLastVisibleItemPosition();
+
+                for (int position = first; position <= last; position++) {
+                    if (mGalleryAccess.getCachedThumbnail(mGalleryAccess.getImageId(position)) == null) {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+
+        }, DELIVERY_TIMEOUT, "the visible thumbnails");
+
+        GalleryAccess.Metrics metrics = mGalleryAccess.getMetrics();
+
+        String measured = mImageCount + " images: flung to " + layoutManager.findLastVisibleItemPosition() +
+                ", loaded " + mThumbnailLoader.getLoadCount() + ", max queue depth " + metrics.getMaxQueueDepth() +
+                " (budget " + LoadTestHelper.MAX_QUEUE_DEPTH + "), max concurrent decodes " +
+                mThumbnailLoader.getMaxActiveLoadCount();
+
+        assertTrue(measured, metrics.getMaxQueueDepth() <= LoadTestHelper.MAX_QUEUE_DEPTH);
+
+        assertEquals(measured, mImageCount, recyclerView.getAdapter().getItemCount());
+    }
+
+    /**
+     * Starts the picker and waits for the gallery to be read.
+     */
+    private void open() {
+        mActivityController = Robolectric.buildActivity(TwitterImagePickerActivity.class,
+                TwitterImagePickerActivity.getMultiSelectionIntent(ApplicationProvider.getApplicationContext(), true, 10))
+                .setup();
+
+        LoadTestHelper.pumpUntil(new LoadTestHelper.Condition() {
+
+            @Override
+            public boolean isMet() {
+                return mGalleryAccess.isPrepared();
+            }
+
+        }, LoadTestHelper.PREPARE_TIMEOUT, "GalleryAccess to prepare");
+    }
+
+}
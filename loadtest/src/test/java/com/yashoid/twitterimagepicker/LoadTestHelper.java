@@ -0,0 +1,155 @@
+package com.yashoid.twitterimagepicker;
+
+import android.Manifest;
+import android.app.Application;
+import android.provider.MediaStore;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.robolectric.Robolectric;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * What the load tests share. Robolectric's clock is paused so the main looper is pumped a frame at
+ * a time while the background threads run on the wall clock.
+ *
+ * The tests check structure rather than speed: queue depths, the heap that stays retained and
+ * that no worker thread outlives its GalleryAccess. Wall clock limits are only timeouts.
+ */
+class LoadTestHelper {
+
+    static final int FRAME_MILLIS = 16;
+
+    // Three columns of six rows on a phone.
+    static final int SCREEN_IMAGE_COUNT = 18;
+
+    static final int MAX_QUEUE_DEPTH = GalleryAccess.MAX_VISIBLE_QUEUE_SIZE + GalleryAccess.MAX_PREFETCH_QUEUE_SIZE +
+            GalleryAccess.MAX_PREWARM_QUEUE_SIZE;
+
+    static final long PREPARE_TIMEOUT = 60000;
+
+    // A GalleryIndex holds about 80 bytes an image in its columns and id map. This allows for two
+    // of them, as while an update is published, and what the picker keeps per visible cell.
+    static final long HEAP_SLACK = 16 * 1024 * 1024;
+    static final long RETAINED_HEAP_PER_IMAGE = 200;
+
+    private static final String WORKER_THREAD_PREFIX = "TwitterImagePicker-";
+    private static final long WORKER_STOP_TIMEOUT = 5000;
+
+    static final int BUCKET_COUNT = 40;
+    static final double BUCKET_SKEW = 3;
+    static final long SEED = 1234;
+
+    static final long QUERY_DELAY = 20;
+    static final long WINDOW_DELAY = 2;
+    static final long DECODE_DELAY = 8;
+
+    interface Condition {
+
+        boolean isMet();
+
+    }
+
+    /**
+     * Registers a fake MediaStore with the given number of images and grants the permission to
+     * read it.
+     */
+    static FakeMediaStoreProvider installMediaStore(int imageCount) {
+        Application application = ApplicationProvider.getApplicationContext();
+
+        shadowOf(application).grantPermissions(Manifest.permission.READ_EXTERNAL_STORAGE);
+
+        FakeMediaStoreProvider provider = Robolectric.buildContentProvider(FakeMediaStoreProvider.class)
+                .create(MediaStore.AUTHORITY).get();
+
+        provider.setImages(imageCount, BUCKET_COUNT, BUCKET_SKEW, SEED);
+        provider.setQueryDelay(QUERY_DELAY);
+        provider.setWindowDelay(WINDOW_DELAY);
+
+        return provider;
+    }
+
+    static void assertRetainedHeapBounded(int imageCount, long retainedHeap) {
+        long budget = HEAP_SLACK + imageCount * RETAINED_HEAP_PER_IMAGE;
+
+        assertTrue(imageCount + " images: retained heap " + retainedHeap / 1024 + "KB, budget " + budget / 1024 + "KB",
+                retainedHeap <= budget);
+    }
+
+    /**
+     * Waits for the picker's worker threads to stop and fails if any of them is still running.
+     */
+    static void assertNoWorkerThreads() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WORKER_STOP_TIMEOUT);
+
+        for (Thread thread: Thread.getAllStackTraces().keySet()) {
+            if (!thread.getName().startsWith(WORKER_THREAD_PREFIX)) {
+                continue;
+            }
+
+            try {
+                thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            assertTrue("Worker thread " + thread.getName() + " is still running", !thread.isAlive());
+        }
+    }
+
+    static void pumpFrame() {
+        ShadowLooper.idleMainLooper(FRAME_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the main looper a frame at a time until the condition is met.
+     * @return Wall clock milliseconds it took.
+     */
+    static long pumpUntil(Condition condition, long timeoutMillis, String description) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        while (!condition.isMet()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out after " + timeoutMillis + "ms waiting for " + description);
+            }
+
+            pumpFrame();
+
+            // Lets the background threads run without spinning the main looper for nothing.
+            Thread.yield();
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * @return The used heap once nothing more is collected.
+     */
+    static long getRetainedHeap() {
+        long used = Long.MAX_VALUE;
+
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            System.runFinalization();
+
+            long collected = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+            if (collected >= used) {
+                return collected;
+            }
+
+            used = collected;
+        }
+
+        return used;
+    }
+
+}
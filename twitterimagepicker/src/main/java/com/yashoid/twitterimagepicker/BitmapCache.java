@@ -0,0 +1,311 @@
+package com.yashoid.twitterimagepicker;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * Byte bounded LRU cache of thumbnails keyed by image id. Entries are linked in access order and
+ * looking an id up does not box it. An entry whose drawable is still referenced (i.e. it is on
+ * screen) is not evicted since dropping it would not free any memory. Drawables are only weakly
+ * referenced, so an entry counts as in use until the garbage collector clears the drawable.
+ *
+ * Entries found in use while evicting are moved to the most recently used end, and a put looks at
+ * no more than a few of them. So get is O(1) and put is amortized O(1), but the cache can go over
+ * its size for a while when more than that is on screen.
+ */
+class BitmapCache {
+
+    // In use entries a put skips before it stops evicting.
+    private static final int MAX_SKIPPED_PER_PUT = 8;
+
+    static int getByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+
+        return bitmap.getByteCount();
+    }
+
+    private Resources mResources;
+
+    private BitmapPool mBitmapPool;
+
+    private long mMaxSize;
+    private long mSize = 0;
+
+    private long mHitCount = 0;
+    private long mMissCount = 0;
+    private long mEvictionCount = 0;
+
+    // Image id to the entry's slot in mEntries.
+    private LongIntHashMap mSlots = new LongIntHashMap(64, -1);
+
+    private Entry[] mEntries = new Entry[64];
+    private int[] mFreeSlots = new int[64];
+    private int mFreeSlotCount = 0;
+    private int mSlotCount = 0;
+
+    // Sentinel of the access order list. Its next is the least recently used entry.
+    private Entry mHead;
+
+    BitmapCache(Resources resources, BitmapPool bitmapPool, long maxSize) {
+        mResources = resources;
+        mBitmapPool = bitmapPool;
+        mMaxSize = maxSize;
+
+        mHead = new Entry(-1, null);
+        mHead.mPrevious = mHead;
+        mHead.mNext = mHead;
+    }
+
+    synchronized public Drawable get(long imageId) {
+        Entry entry = getEntry(imageId);
+
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+
+        mHitCount++;
+
+        return entry.getDrawable();
+    }
+
+    /**
+     * Same as get but not counted as a hit or miss. For looking again right after a miss.
+     */
+    synchronized public Drawable peek(long imageId) {
+        Entry entry = getEntry(imageId);
+
+        return entry == null ? null : entry.getDrawable();
+    }
+
+    synchronized public boolean contains(long imageId) {
+        return mSlots.containsKey(imageId);
+    }
+
+    synchronized public Drawable put(long imageId, Bitmap bitmap) {
+        Entry entry = new Entry(imageId, bitmap);
+
+        // Obtained before trimming so that the new entry counts as in use.
+        Drawable drawable = entry.getDrawable();
+
+        int slot = mSlots.get(imageId);
+
+        if (slot != -1) {
+            Entry previous = mEntries[slot];
+
+            unlink(previous);
+
+            mSize -= previous.mSize;
+
+            release(previous);
+        }
+        else {
+            slot = obtainSlot();
+
+            mSlots.put(imageId, slot);
+        }
+
+        mEntries[slot] = entry;
+
+        linkLast(entry);
+
+        mSize += entry.mSize;
+
+        trimToSize(mMaxSize, MAX_SKIPPED_PER_PUT);
+
+        return drawable;
+    }
+
+    private Entry getEntry(long imageId) {
+        int slot = mSlots.get(imageId);
+
+        if (slot == -1) {
+            return null;
+        }
+
+        Entry entry = mEntries[slot];
+
+        unlink(entry);
+        linkLast(entry);
+
+        return entry;
+    }
+
+    private int obtainSlot() {
+        if (mFreeSlotCount > 0) {
+            return mFreeSlots[--mFreeSlotCount];
+        }
+
+        if (mSlotCount == mEntries.length) {
+            mEntries = Arrays.copyOf(mEntries, mSlotCount * 2);
+            mFreeSlots = Arrays.copyOf(mFreeSlots, mSlotCount * 2);
+        }
+
+        return mSlotCount++;
+    }
+
+    private void linkLast(Entry entry) {
+        entry.mPrevious = mHead.mPrevious;
+        entry.mNext = mHead;
+
+        mHead.mPrevious.mNext = entry;
+        mHead.mPrevious = entry;
+    }
+
+    private void unlink(Entry entry) {
+        entry.mPrevious.mNext = entry.mNext;
+        entry.mNext.mPrevious = entry.mPrevious;
+
+        entry.mPrevious = null;
+        entry.mNext = null;
+    }
+
+    synchronized public void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Evicts until the size is below maxSize or only entries in use are left.
+     */
+    synchronized public void trimToSize(long maxSize) {
+        trimToSize(maxSize, mSlots.size());
+    }
+
+    private void trimToSize(long maxSize, int maxSkipped) {
+        Entry entry = mHead.mNext;
+        int skipped = 0;
+
+        while (mSize > maxSize && entry != mHead && skipped < maxSkipped) {
+            Entry next = entry.mNext;
+
+            if (entry.isInUse()) {
+                // Behind the others, so the next trims look at those first.
+                unlink(entry);
+                linkLast(entry);
+
+                skipped++;
+
+                entry = next;
+                continue;
+            }
+
+            int slot = mSlots.remove(entry.mImageId);
+
+            mEntries[slot] = null;
+            mFreeSlots[mFreeSlotCount++] = slot;
+
+            unlink(entry);
+
+            mSize -= entry.mSize;
+            mEvictionCount++;
+
+            release(entry);
+
+            entry = next;
+        }
+    }
+
+    /**
+     * Removes every entry, also the ones in use. Those bitmaps are freed once they are not shown.
+     */
+    synchronized public void clear() {
+        Entry entry = mHead.mNext;
+
+        while (entry != mHead) {
+            Entry next = entry.mNext;
+
+            entry.mPrevious = null;
+            entry.mNext = null;
+
+            mEvictionCount++;
+
+            release(entry);
+
+            entry = next;
+        }
+
+        mHead.mPrevious = mHead;
+        mHead.mNext = mHead;
+
+        mSlots.clear();
+
+        Arrays.fill(mEntries, 0, mSlotCount, null);
+        mFreeSlotCount = 0;
+        mSlotCount = 0;
+
+        mSize = 0;
+    }
+
+    private void release(Entry entry) {
+        if (!entry.isInUse() && !mBitmapPool.put(entry.mBitmap)) {
+            entry.mBitmap.recycle();
+        }
+    }
+
+    synchronized public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    synchronized public long getSize() {
+        return mSize;
+    }
+
+    synchronized public long getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized public long getMissCount() {
+        return mMissCount;
+    }
+
+    synchronized public long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    private class Entry {
+
+        private long mImageId;
+
+        private Bitmap mBitmap;
+        private int mSize;
+
+        private WeakReference<Drawable> mDrawable = null;
+
+        private Entry mPrevious = null;
+        private Entry mNext = null;
+
+        private Entry(long imageId, Bitmap bitmap) {
+            mImageId = imageId;
+            mBitmap = bitmap;
+            mSize = bitmap == null ? 0 : getByteCount(bitmap);
+        }
+
+        private Drawable getDrawable() {
+            Drawable drawable = mDrawable == null ? null : mDrawable.get();
+
+            if (drawable == null) {
+                drawable = new BitmapDrawable(mResources, mBitmap);
+
+                mDrawable = new WeakReference<>(drawable);
+            }
+
+            return drawable;
+        }
+
+        private boolean isInUse() {
+            return mDrawable != null && mDrawable.get() != null;
+        }
+
+    }
+
+}
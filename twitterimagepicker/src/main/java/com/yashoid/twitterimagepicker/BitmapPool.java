@@ -0,0 +1,158 @@
+package com.yashoid.twitterimagepicker;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Byte bounded pool of mutable bitmaps grouped by width, height and config. Bitmaps evicted from
+ * the memory cache are put here to be decoded into again through {@link BitmapFactory.Options#inBitmap}.
+ */
+public class BitmapPool {
+
+    private long mMaxSize;
+    private long mSize = 0;
+
+    private LinkedHashMap<Key, ArrayList<Bitmap>> mGroups = new LinkedHashMap<>(8, 0.75f, true);
+
+    private Key mLookupKey = new Key(0, 0, null);
+
+    BitmapPool(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @return false if the bitmap can not be reused. The caller still owns the bitmap in this case.
+     */
+    synchronized public boolean put(Bitmap bitmap) {
+        if (bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == null) {
+            return false;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && bitmap.getConfig() == Bitmap.Config.HARDWARE) {
+            return false;
+        }
+
+        int size = BitmapCache.getByteCount(bitmap);
+
+        if (size > mMaxSize) {
+            return false;
+        }
+
+        ArrayList<Bitmap> group = mGroups.get(mLookupKey.set(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig()));
+
+        if (group == null) {
+            group = new ArrayList<>(4);
+
+            mGroups.put(new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig()), group);
+        }
+
+        group.add(bitmap);
+
+        mSize += size;
+
+        trimToSize(mMaxSize);
+
+        return true;
+    }
+
+    /**
+     * @return A mutable bitmap with exactly the given dimensions and config or null if none is pooled.
+     */
+    synchronized public Bitmap get(int width, int height, Bitmap.Config config) {
+        ArrayList<Bitmap> group = mGroups.get(mLookupKey.set(width, height, config));
+
+        if (group == null || group.isEmpty()) {
+            return null;
+        }
+
+        Bitmap bitmap = group.remove(group.size() - 1);
+
+        mSize -= BitmapCache.getByteCount(bitmap);
+
+        return bitmap;
+    }
+
+    /**
+     * Prepares the options to decode into a pooled bitmap if one with the expected dimensions exists.
+     */
+    public void prepareOptions(BitmapFactory.Options options, int width, int height, Bitmap.Config config) {
+        options.inMutable = true;
+        options.inPreferredConfig = config;
+        options.inBitmap = get(width, height, config);
+    }
+
+    synchronized public void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+
+        trimToSize(maxSize);
+    }
+
+    synchronized public void trimToSize(long maxSize) {
+        Iterator<ArrayList<Bitmap>> iterator = mGroups.values().iterator();
+
+        while (mSize > maxSize && iterator.hasNext()) {
+            ArrayList<Bitmap> group = iterator.next();
+
+            while (mSize > maxSize && !group.isEmpty()) {
+                Bitmap bitmap = group.remove(0);
+
+                mSize -= BitmapCache.getByteCount(bitmap);
+
+                bitmap.recycle();
+            }
+
+            if (group.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized public long getSize() {
+        return mSize;
+    }
+
+    private static class Key {
+
+        private int mWidth;
+        private int mHeight;
+        private Bitmap.Config mConfig;
+
+        private Key(int width, int height, Bitmap.Config config) {
+            set(width, height, config);
+        }
+
+        private Key set(int width, int height, Bitmap.Config config) {
+            mWidth = width;
+            mHeight = height;
+            mConfig = config;
+
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) o;
+
+            return mWidth == key.mWidth && mHeight == key.mHeight && mConfig == key.mConfig;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mWidth;
+            result = 31 * result + mHeight;
+            result = 31 * result + (mConfig == null ? 0 : mConfig.hashCode());
+            return result;
+        }
+
+    }
+
+}
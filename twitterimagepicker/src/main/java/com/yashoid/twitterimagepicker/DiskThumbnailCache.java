@@ -0,0 +1,515 @@
+package com.yashoid.twitterimagepicker;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded LRU cache of thumbnail files in the app's cache directory. Entries are keyed by the
+ * image id and are only valid for the DATE_MODIFIED they were written for. Opaque thumbnails are
+ * stored as JPEG and the ones with transparency as PNG.
+ *
+ * The index is kept in an append only binary journal of fixed size records that is replayed when
+ * the cache is first used and compacted once it grows too large.
+ */
+class DiskThumbnailCache {
+
+    private static final String TAG = "DiskThumbnailCache";
+
+    private static final String JOURNAL = "journal";
+    private static final String JOURNAL_TEMP = "journal.tmp";
+
+    private static final int JOURNAL_MAGIC = 0x54495044;
+    private static final int JOURNAL_VERSION = 2;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_READ = 2;
+    private static final byte OP_REMOVE = 3;
+
+    private static final int COMPACT_THRESHOLD = 2000;
+
+    private static final Bitmap.CompressFormat OPAQUE_FORMAT = Bitmap.CompressFormat.JPEG;
+    private static final Bitmap.CompressFormat ALPHA_FORMAT = Bitmap.CompressFormat.PNG;
+    private static final int QUALITY = 85;
+
+    private Context mContext;
+
+    private String mDirectoryName;
+
+    private long mMaxSize;
+    private long mSize = 0;
+
+    private File mDirectory = null;
+    private DataOutputStream mJournal = null;
+    private int mRedundantOps = 0;
+
+    private LinkedHashMap<Long, Entry> mEntries = new LinkedHashMap<>(128, 0.75f, true);
+
+    private boolean mOpened = false;
+
+    /**
+     * @param directoryName Name of the cache's own directory in the app's cache directory.
+     */
+    DiskThumbnailCache(Context context, String directoryName, long maxSize) {
+        mContext = context;
+        mDirectoryName = directoryName;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Keeps the cache in the given directory instead. Used by tests.
+     */
+    DiskThumbnailCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Must not be called on the main thread.
+     * @param opaqueConfig Config for thumbnails that have no transparency. The others are decoded
+     *                     as ARGB_8888.
+     */
+    public Bitmap get(long imageId, long dateModified, Bitmap.Config opaqueConfig, BitmapPool bitmapPool) {
+        Entry entry = getEntry(imageId, dateModified);
+
+        if (entry == null) {
+            return null;
+        }
+
+        File file = fileOf(imageId, dateModified);
+        Bitmap.Config config = entry.mHasAlpha ? Bitmap.Config.ARGB_8888 : opaqueConfig;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+
+        BitmapFactory.decodeFile(file.getPath(), options);
+
+        Bitmap bitmap = null;
+
+        if (options.outWidth > 0 && options.outHeight > 0) {
+            options.inJustDecodeBounds = false;
+
+            bitmapPool.prepareOptions(options, options.outWidth, options.outHeight, config);
+
+            try {
+                bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) {
+                    throw e;
+                }
+
+                // The pooled bitmap could not be reused for this file.
+                bitmapPool.put(options.inBitmap);
+
+                options.inBitmap = null;
+
+                bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+            }
+        }
+
+        if (bitmap == null) {
+            // Only the file that failed. A newer thumbnail may have been put since.
+            remove(imageId, dateModified);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Must not be called on the main thread.
+     */
+    public void put(long imageId, long dateModified, Bitmap bitmap) {
+        File directory = getDirectory();
+
+        if (directory == null) {
+            return;
+        }
+
+        File temp = new File(directory, imageId + "_" + dateModified + ".tmp");
+
+        boolean hasAlpha = bitmap.hasAlpha();
+
+        OutputStream output = null;
+
+        try {
+            output = new BufferedOutputStream(new FileOutputStream(temp));
+
+            if (!bitmap.compress(hasAlpha ? ALPHA_FORMAT : OPAQUE_FORMAT, QUALITY, output)) {
+                throw new IOException("Failed to compress thumbnail.");
+            }
+
+            output.close();
+            output = null;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write thumbnail for image " + imageId, e);
+
+            closeQuietly(output);
+            temp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            if (mJournal == null) {
+                temp.delete();
+                return;
+            }
+
+            Entry previous = mEntries.remove(imageId);
+
+            if (previous != null) {
+                mSize -= previous.mSize;
+
+                fileOf(imageId, previous.mDateModified).delete();
+
+                mRedundantOps++;
+            }
+
+            File file = fileOf(imageId, dateModified);
+
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+
+            Entry entry = new Entry(dateModified, file.length(), hasAlpha);
+
+            mEntries.put(imageId, entry);
+            mSize += entry.mSize;
+
+            writeRecord(OP_PUT, imageId, dateModified, entry.mSize, hasAlpha, true);
+
+            trimToSize();
+        }
+    }
+
+    synchronized public void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+
+        if (mJournal != null) {
+            trimToSize();
+        }
+    }
+
+    synchronized long getSize() {
+        return open() ? mSize : 0;
+    }
+
+    /**
+     * @return null if there is no thumbnail for the given DATE_MODIFIED. Counts as a use.
+     */
+    synchronized Entry getEntry(long imageId, long dateModified) {
+        if (!open()) {
+            return null;
+        }
+
+        Entry entry = mEntries.get(imageId);
+
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.mDateModified != dateModified) {
+            // The image has been edited since its thumbnail was cached.
+            remove(imageId, entry.mDateModified);
+            return null;
+        }
+
+        writeRecord(OP_READ, imageId, dateModified, 0, false, false);
+        mRedundantOps++;
+
+        // Caches that are mostly read from would otherwise grow the journal until the next open.
+        compactJournalIfNeeded();
+
+        return entry;
+    }
+
+    /**
+     * Removes the entry only if it is still for the given DATE_MODIFIED.
+     */
+    synchronized private void remove(long imageId, long dateModified) {
+        Entry entry = mEntries.get(imageId);
+
+        if (entry == null || entry.mDateModified != dateModified) {
+            return;
+        }
+
+        mEntries.remove(imageId);
+
+        mSize -= entry.mSize;
+
+        fileOf(imageId, entry.mDateModified).delete();
+
+        writeRecord(OP_REMOVE, imageId, 0, 0, false, true);
+        mRedundantOps += 2;
+    }
+
+    synchronized private File getDirectory() {
+        return open() ? mDirectory : null;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<Long, Entry>> iterator = mEntries.entrySet().iterator();
+
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Map.Entry<Long, Entry> mapEntry = iterator.next();
+
+            long imageId = mapEntry.getKey();
+            Entry entry = mapEntry.getValue();
+
+            iterator.remove();
+
+            mSize -= entry.mSize;
+
+            fileOf(imageId, entry.mDateModified).delete();
+
+            writeRecord(OP_REMOVE, imageId, 0, 0, false, false);
+            mRedundantOps += 2;
+        }
+
+        flushJournal();
+
+        compactJournalIfNeeded();
+    }
+
+    private void compactJournalIfNeeded() {
+        if (mRedundantOps > COMPACT_THRESHOLD && mRedundantOps > mEntries.size()) {
+            compactJournal();
+        }
+    }
+
+    private boolean open() {
+        if (mOpened) {
+            return mJournal != null;
+        }
+
+        mOpened = true;
+
+        if (mDirectory == null) {
+            File cacheDir = mContext.getCacheDir();
+
+            if (cacheDir == null) {
+                return false;
+            }
+
+            mDirectory = new File(cacheDir, mDirectoryName);
+        }
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Failed to create thumbnail cache directory.");
+            return false;
+        }
+
+        File journal = new File(mDirectory, JOURNAL);
+
+        if (journal.exists()) {
+            try {
+                readJournal(journal);
+            } catch (IOException e) {
+                Log.w(TAG, "Thumbnail cache journal is corrupt. Clearing the cache.", e);
+
+                mEntries.clear();
+                mSize = 0;
+
+                deleteContents();
+            }
+        }
+        else {
+            deleteContents();
+        }
+
+        compactJournal();
+
+        if (mJournal != null) {
+            trimToSize();
+        }
+
+        return mJournal != null;
+    }
+
+    private void readJournal(File journal) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+
+        try {
+            if (input.readInt() != JOURNAL_MAGIC || input.readInt() != JOURNAL_VERSION) {
+                throw new IOException("Unexpected journal header.");
+            }
+
+            while (true) {
+                byte op;
+
+                try {
+                    op = input.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                long imageId = input.readLong();
+                long dateModified = input.readLong();
+                long size = input.readLong();
+                boolean hasAlpha = input.readBoolean();
+
+                switch (op) {
+                    case OP_PUT:
+                        Entry previous = mEntries.put(imageId, new Entry(dateModified, size, hasAlpha));
+
+                        if (previous != null) {
+                            mSize -= previous.mSize;
+                        }
+
+                        mSize += size;
+                        break;
+                    case OP_READ:
+                        mEntries.get(imageId);
+                        break;
+                    case OP_REMOVE:
+                        Entry removed = mEntries.remove(imageId);
+
+                        if (removed != null) {
+                            mSize -= removed.mSize;
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unexpected journal operation " + op);
+                }
+            }
+        } catch (EOFException e) {
+            // Process died while writing the last record. Everything before it is still valid.
+        } finally {
+            input.close();
+        }
+    }
+
+    private void compactJournal() {
+        closeQuietly(mJournal);
+        mJournal = null;
+
+        File temp = new File(mDirectory, JOURNAL_TEMP);
+
+        DataOutputStream output = null;
+
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+
+            output.writeInt(JOURNAL_MAGIC);
+            output.writeInt(JOURNAL_VERSION);
+
+            for (Map.Entry<Long, Entry> mapEntry: mEntries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+
+                writeRecord(output, OP_PUT, mapEntry.getKey(), entry.mDateModified, entry.mSize, entry.mHasAlpha);
+            }
+
+            output.close();
+            output = null;
+
+            if (!temp.renameTo(new File(mDirectory, JOURNAL))) {
+                throw new IOException("Failed to replace the journal.");
+            }
+
+            mJournal = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(mDirectory, JOURNAL), true)));
+
+            mRedundantOps = 0;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write thumbnail cache journal. Disk cache disabled.", e);
+
+            closeQuietly(output);
+            temp.delete();
+        }
+    }
+
+    private void writeRecord(byte op, long imageId, long dateModified, long size, boolean hasAlpha, boolean flush) {
+        if (mJournal == null) {
+            return;
+        }
+
+        try {
+            writeRecord(mJournal, op, imageId, dateModified, size, hasAlpha);
+
+            if (flush) {
+                mJournal.flush();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to append to thumbnail cache journal.", e);
+        }
+    }
+
+    private void flushJournal() {
+        if (mJournal == null) {
+            return;
+        }
+
+        try {
+            mJournal.flush();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to flush thumbnail cache journal.", e);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream output, byte op, long imageId, long dateModified,
+                                    long size, boolean hasAlpha) throws IOException {
+        output.writeByte(op);
+        output.writeLong(imageId);
+        output.writeLong(dateModified);
+        output.writeLong(size);
+        output.writeBoolean(hasAlpha);
+    }
+
+    private File fileOf(long imageId, long dateModified) {
+        return new File(mDirectory, imageId + "_" + dateModified);
+    }
+
+    private void deleteContents() {
+        File[] files = mDirectory.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (File file: files) {
+            file.delete();
+        }
+    }
+
+    private static void closeQuietly(OutputStream output) {
+        if (output == null) {
+            return;
+        }
+
+        try {
+            output.close();
+        } catch (IOException e) { }
+    }
+
+    private static class Entry {
+
+        private long mDateModified;
+        private long mSize;
+
+        // Stored as PNG rather than JPEG.
+        private boolean mHasAlpha;
+
+        private Entry(long dateModified, long size, boolean hasAlpha) {
+            mDateModified = dateModified;
+            mSize = size;
+            mHasAlpha = hasAlpha;
+        }
+
+    }
+
+}
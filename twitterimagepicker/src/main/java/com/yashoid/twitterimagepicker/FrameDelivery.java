@@ -0,0 +1,80 @@
+package com.yashoid.twitterimagepicker;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs deliveries to the main thread together once per frame instead of one message each. What
+ * does not fit in the per frame budget is left for the next frame so a burst of finished
+ * thumbnails can not make a frame miss its deadline.
+ */
+class FrameDelivery implements Choreographer.FrameCallback {
+
+    // A quarter of a 60 fps frame.
+    private static final long FRAME_BUDGET_NANOS = 4000000;
+
+    private ConcurrentLinkedQueue<Runnable> mDeliveries = new ConcurrentLinkedQueue<>();
+
+    private AtomicBoolean mFrameScheduled = new AtomicBoolean(false);
+
+    private Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * May be called on any thread. The delivery runs on the main thread on the next frame.
+     */
+    public void post(Runnable delivery) {
+        mDeliveries.offer(delivery);
+
+        scheduleFrame();
+    }
+
+    private void scheduleFrame() {
+        if (!mFrameScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+        else {
+            // Choreographer belongs to the main thread.
+            mHandler.post(mPostFrameCallback);
+        }
+    }
+
+    private Runnable mPostFrameCallback = new Runnable() {
+
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(FrameDelivery.this);
+        }
+
+    };
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // Cleared first so anything posted from here on schedules another frame.
+        mFrameScheduled.set(false);
+
+        long start = System.nanoTime();
+
+        Runnable delivery;
+
+        while ((delivery = mDeliveries.poll()) != null) {
+            delivery.run();
+
+            if (System.nanoTime() - start > FRAME_BUDGET_NANOS) {
+                break;
+            }
+        }
+
+        if (!mDeliveries.isEmpty()) {
+            scheduleFrame();
+        }
+    }
+
+}
@@ -1,28 +1,39 @@
 package com.yashoid.twitterimagepicker;
 
+import android.content.ComponentCallbacks2;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
+import android.content.res.Configuration;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.drawable.BitmapDrawable;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.util.Log;
-import android.util.Size;
-import android.util.SparseArray;
 
-import com.yashoid.office.office.Office;
+import androidx.annotation.VisibleForTesting;
+
 import com.yashoid.office.task.DefaultTaskManager;
 import com.yashoid.office.task.TaskManager;
 
-import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class GalleryAccess {
 
@@ -30,460 +41,1957 @@ public class GalleryAccess {
 
     private static final String IMAGE_ID = MediaStore.Images.Media._ID;
     private static final String IMAGE_DISPLAY_NAME = MediaStore.Images.Media.DISPLAY_NAME;
+    private static final String BUCKET_ID = MediaStore.Images.Media.BUCKET_ID;
     private static final String BUCKET_DISPLAY_NAME = "bucket_display_name";
+    private static final String DATE_MODIFIED = MediaStore.Images.Media.DATE_MODIFIED;
+    private static final String ORIENTATION = MediaStore.Images.Media.ORIENTATION;
 
-    private static final String[] SELECTION = { IMAGE_ID, IMAGE_DISPLAY_NAME, BUCKET_DISPLAY_NAME };
+    private static final String[] SELECTION = { IMAGE_ID, IMAGE_DISPLAY_NAME, BUCKET_ID, BUCKET_DISPLAY_NAME, DATE_MODIFIED, ORIENTATION };
     private static final String SORT = MediaStore.Images.Media.DATE_MODIFIED + " DESC";
 
+    private static final String DISK_CACHE_DIRECTORY = "twitterimagepicker_thumbnails";
+    private static final String MICRO_DISK_CACHE_DIRECTORY = "twitterimagepicker_micro_thumbnails";
+
+    private static final long DEFAULT_DISK_CACHE_SIZE = 32 * 1024 * 1024;
+    private static final long DEFAULT_MICRO_DISK_CACHE_SIZE = 4 * 1024 * 1024;
+
+    // Short side of the micro thumbnails that are shown scaled up while the thumbnail loads.
+    private static final int MICRO_THUMBNAIL_SIZE = 32;
+
+    // The scan publishes what it has so far after this many rows and then every time the row count doubles.
+    private static final int FIRST_PAGE_SIZE = 100;
+
+    // Changes to MediaStore tend to come in bursts. They are applied together after this delay.
+    private static final long UPDATE_DELAY = 300;
+
+    // New placeholders are written to the snapshot together after this delay.
+    private static final long SNAPSHOT_WRITE_DELAY = 5000;
+
+    // Waiting visible loads are only ever a few screens worth. Older prefetches are dropped beyond this.
+    static final int MAX_VISIBLE_QUEUE_SIZE = 128;
+    static final int MAX_PREFETCH_QUEUE_SIZE = 64;
+    static final int MAX_PREWARM_QUEUE_SIZE = 64;
+
+    /**
+     * The most thumbnails {@link #prewarm(int)} loads.
+     */
+    public static final int MAX_PREWARM_THUMBNAIL_COUNT = MAX_PREWARM_QUEUE_SIZE;
+
     public interface OnPreparedListener {
 
         void onGalleryAccessPrepared(GalleryAccess galleryAccess);
 
     }
 
+    /**
+     * Called on the main thread when the index changes. While the gallery is being scanned images
+     * and buckets are only appended. After that, images added, edited or deleted in MediaStore are
+     * applied as they happen. Existing bucket indices never change.
+     */
+    public interface OnIndexChangedListener {
+
+        void onIndexChanged(GalleryAccess galleryAccess, GalleryIndexChange change);
+
+    }
+
     public interface OnThumbnailReadyReceiver {
 
         void onThumbnailReady(Uri imageUri, Drawable thumbnail);
 
     }
 
-    private static GalleryAccess mInstance = null;
+    /**
+     * Receivers that also implement this are given the micro thumbnail of the image if it has to be
+     * read from disk while the thumbnail loads. Not called if the thumbnail is ready first.
+     */
+    public interface OnPlaceholderReadyReceiver extends OnThumbnailReadyReceiver {
 
-    public static GalleryAccess getInstance(Context context) {
-        if (mInstance == null) {
-            mInstance = new GalleryAccess(context.getApplicationContext());
-        }
+        void onPlaceholderReady(Uri imageUri, Drawable placeholder);
 
-        return mInstance;
     }
 
-    private Context mContext;
+    public interface ThumbnailRequest {
 
-    private int mThumbnailSize;
+        /**
+         * The receiver will not be called after this. The thumbnail is not loaded anymore if no
+         * one else is waiting for it.
+         */
+        void cancel();
 
-    private TaskManager mTaskManager = null;
+    }
 
-    private boolean mInitialized = false;
-    private boolean mPrepared = false;
-    private boolean mPreparing = false;
+    public interface PrewarmRequest {
 
-    private List<OnPreparedListener> mOnPreparedListeners = new ArrayList<>();
+        /**
+         * Thumbnails that have not started loading are not loaded anymore. The index is still built.
+         */
+        void cancel();
 
-    private List<String> mBucketNames = null;
-    private long[] mImageIds;
-    private SparseArray<List<Integer>> mBucketImages = null;
+    }
 
-    private BitmapCache mBitmapCache = new BitmapCache(2 * 1024 * 1024);
-    private HashMap<Uri, GetThumbnailTask> mThumbnailTasks = new HashMap<>(50);
+    /**
+     * Called with what {@link Metrics} records. Thumbnail loads are reported on the worker thread
+     * that loaded them, everything else on the main thread.
+     */
+    public interface MetricsListener {
 
-    private GalleryAccess(Context context) {
-        mContext = context;
+        void onPrepared(GalleryAccess galleryAccess, long durationMillis, int imageCount);
 
-        mThumbnailSize = context.getResources().getDisplayMetrics().widthPixels / 3;
-    }
+        void onFirstThumbnail(GalleryAccess galleryAccess, long millisSincePrepare);
 
-    public void setTaskManager(TaskManager taskManager) {
-        if (mInitialized) {
-            return;
-        }
+        /**
+         * @param source One of the Metrics.SOURCE_ constants.
+         * @param latencyMillis From the worker picking the request up to the thumbnail being ready.
+         */
+        void onThumbnailLoaded(GalleryAccess galleryAccess, int source, long latencyMillis);
 
-        mTaskManager = taskManager;
     }
 
-    private void initialize() {
-        if (mInitialized) {
-            return;
-        }
+    /**
+     * What GalleryAccess has been doing. Only recorded while at least one {@link MetricsListener}
+     * is registered, so it can be left on in release builds.
+     * @see #getMetrics()
+     */
+    public static class Metrics {
 
-        if (mTaskManager == null) {
-            mTaskManager = DefaultTaskManager.getInstance();
-        }
+        public static final int SOURCE_DISK_CACHE = 0;
+        public static final int SOURCE_STREAM = 1;
+        public static final int SOURCE_LOAD_THUMBNAIL = 2;
+        public static final int SOURCE_MINI_THUMBNAIL = 3;
+        public static final int SOURCE_CUSTOM_LOADER = 4;
 
-        boolean hasCalculationSection = false;
+        private static final int SOURCE_COUNT = 5;
 
-        for (Office.SectionDescription sectionDescription: mTaskManager.getSectionDescriptions()) {
-            if (TaskManager.CALCULATION.equals(sectionDescription.name)) {
-                hasCalculationSection = true;
-                break;
-            }
-        }
+        /**
+         * Upper bounds in milliseconds of the latency histogram buckets. One more bucket holds
+         * everything above the last bound.
+         */
+        public static final long[] LATENCY_BUCKET_BOUNDS = { 1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024 };
 
-        if (!hasCalculationSection) {
-            mTaskManager.addSection(TaskManager.CALCULATION, DefaultTaskManager.DEFAULT_CALCULATION_WORKERS);
-        }
+        private List<MetricsListener> mListeners = new ArrayList<>(2);
 
-        mInitialized = true;
-    }
+        private long mPrepareDuration = -1;
+        private int mPreparedImageCount = 0;
+        private long mTimeToFirstThumbnail = -1;
 
-    synchronized public void prepare() {
-        if (mPrepared || mPreparing) {
-            return;
-        }
+        private long[][] mLatencyHistograms = new long[SOURCE_COUNT][LATENCY_BUCKET_BOUNDS.length + 1];
 
-        mPreparing = true;
+        private long mCancelledRequestCount = 0;
+        private long mDroppedTaskCount = 0;
+        private int mMaxQueueDepth = 0;
 
-        initialize();
+        // Taken from the caches and queues when copied.
+        private long mCacheHitCount;
+        private long mCacheMissCount;
+        private long mCacheSize;
+        private long mCacheMaxSize;
+        private long mCacheEvictionCount;
+        private int mQueueDepth;
 
-        mTaskManager.runTask(TaskManager.CALCULATION, mPrepareTask, 0);
-    }
+        private Metrics() {
 
-    synchronized public boolean isPrepared() {
-        return mPrepared;
-    }
+        }
 
-    synchronized public void registerOnPreparedListener(final OnPreparedListener onPreparedListener) {
-        if (mPrepared) {
-            mTaskManager.runTask(TaskManager.MAIN, new Runnable() {
+        private Metrics(Metrics metrics) {
+            synchronized (metrics) {
+                mPrepareDuration = metrics.mPrepareDuration;
+                mPreparedImageCount = metrics.mPreparedImageCount;
+                mTimeToFirstThumbnail = metrics.mTimeToFirstThumbnail;
 
-                @Override
-                public void run() {
-                    onPreparedListener.onGalleryAccessPrepared(GalleryAccess.this);
+                for (int source = 0; source < SOURCE_COUNT; source++) {
+                    mLatencyHistograms[source] = metrics.mLatencyHistograms[source].clone();
                 }
 
-            }, 0);
-            return;
+                mCancelledRequestCount = metrics.mCancelledRequestCount;
+                mDroppedTaskCount = metrics.mDroppedTaskCount;
+                mMaxQueueDepth = metrics.mMaxQueueDepth;
+            }
         }
 
-        mOnPreparedListeners.remove(onPreparedListener);
-        mOnPreparedListeners.add(onPreparedListener);
-    }
-
-    synchronized public void unregisterOnPreparedListener(OnPreparedListener onPreparedListener) {
-        mOnPreparedListeners.remove(onPreparedListener);
-    }
+        synchronized private List<MetricsListener> getListeners() {
+            return new ArrayList<>(mListeners);
+        }
 
-    public int getBucketCount() {
-        return mBucketNames == null ? 0 : mBucketNames.size();
-    }
+        private void recordPrepared(GalleryAccess galleryAccess, long duration, int imageCount) {
+            synchronized (this) {
+                mPrepareDuration = duration;
+                mPreparedImageCount = imageCount;
+            }
 
-    public String getBucketAtPosition(int position) {
-        return mBucketNames.get(position);
-    }
+            for (MetricsListener listener: getListeners()) {
+                listener.onPrepared(galleryAccess, duration, imageCount);
+            }
+        }
 
-    public int getImageCount() {
-        return mImageIds.length;
-    }
+        private void recordFirstThumbnail(GalleryAccess galleryAccess, long sincePrepare) {
+            synchronized (this) {
+                if (mTimeToFirstThumbnail != -1) {
+                    return;
+                }
 
-    public int getImageCount(int bucketIndex) {
-        return mBucketImages.get(bucketIndex).size();
-    }
+                mTimeToFirstThumbnail = sincePrepare;
+            }
 
-    public Uri getImageUri(int position) {
-        return ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, mImageIds[position]);
-    }
+            for (MetricsListener listener: getListeners()) {
+                listener.onFirstThumbnail(galleryAccess, sincePrepare);
+            }
+        }
 
-    public Uri getImageUri(int bucketIndex, int position) {
-        return getImageUri(mBucketImages.get(bucketIndex).get(position));
-    }
+        private void recordThumbnailLoaded(GalleryAccess galleryAccess, int source, long latency) {
+            synchronized (this) {
+                int bucket = 0;
 
-    synchronized public void getThumbnail(final Uri imageUri, final OnThumbnailReadyReceiver receiver) {
-        final Drawable drawable = mBitmapCache.get(imageUri);
+                while (bucket < LATENCY_BUCKET_BOUNDS.length && latency > LATENCY_BUCKET_BOUNDS[bucket]) {
+                    bucket++;
+                }
 
-        if (drawable != null) {
-            mTaskManager.runTask(TaskManager.MAIN, new Runnable() {
+                mLatencyHistograms[source][bucket]++;
+            }
 
-                @Override
-                public void run() {
-                    receiver.onThumbnailReady(imageUri, drawable);
-                }
+            for (MetricsListener listener: getListeners()) {
+                listener.onThumbnailLoaded(galleryAccess, source, latency);
+            }
+        }
 
-            }, 0);
-            return;
+        synchronized private void recordCancelledRequest() {
+            mCancelledRequestCount++;
         }
 
-        GetThumbnailTask task = mThumbnailTasks.get(imageUri);
+        synchronized private void recordDroppedTask() {
+            mDroppedTaskCount++;
+        }
 
-        boolean newTask = false;
+        synchronized private void recordQueueDepth(int queueDepth) {
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, queueDepth);
+        }
 
-        if (task == null) {
-            task = new GetThumbnailTask(imageUri);
+        /**
+         * @return -1 if the gallery has not been prepared yet.
+         */
+        public long getPrepareDuration() {
+            return mPrepareDuration;
+        }
 
-            mThumbnailTasks.put(imageUri, task);
+        public int getPreparedImageCount() {
+            return mPreparedImageCount;
+        }
 
-            newTask = true;
+        public float getPrepareRowsPerSecond() {
+            return mPrepareDuration <= 0 ? 0 : mPreparedImageCount * 1000f / mPrepareDuration;
         }
 
-        task.addReceiver(receiver);
+        /**
+         * @return Milliseconds from {@link #prepare()} to the first thumbnail delivered or -1.
+         */
+        public long getTimeToFirstThumbnail() {
+            return mTimeToFirstThumbnail;
+        }
 
-        if (newTask) {
-            mTaskManager.runTask(TaskManager.CALCULATION, task, 0);
+        /**
+         * @return Counts of the thumbnails loaded from the source per bucket of {@link #LATENCY_BUCKET_BOUNDS}.
+         */
+        public long[] getLatencyHistogram(int source) {
+            return mLatencyHistograms[source].clone();
         }
-    }
 
-    private Runnable mPrepareTask = new Runnable() {
+        public long getThumbnailCount(int source) {
+            long count = 0;
 
-        @Override
-        public void run() {
-            ContentResolver contentResolver = mContext.getContentResolver();
+            for (long bucketCount: mLatencyHistograms[source]) {
+                count += bucketCount;
+            }
 
-            Cursor cursor = contentResolver.query(
-                    MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                    SELECTION, null, null, SORT);
+            return count;
+        }
 
-            if (cursor == null) {
-                throw new RuntimeException("Image media content expected to exist but didn't.");
-            }
+        public float getCacheHitRate() {
+            long requestCount = mCacheHitCount + mCacheMissCount;
 
-            final int idColumn = cursor.getColumnIndex(IMAGE_ID);
-            final int nameColumn = cursor.getColumnIndex(IMAGE_DISPLAY_NAME);
-            final int bucketColumn = cursor.getColumnIndex(BUCKET_DISPLAY_NAME);
+            return requestCount == 0 ? 0 : (float) mCacheHitCount / requestCount;
+        }
 
-            final int count = cursor.getCount();
+        public long getCacheHitCount() {
+            return mCacheHitCount;
+        }
 
-            mImageIds = new long[count];
+        public long getCacheMissCount() {
+            return mCacheMissCount;
+        }
 
-            if (bucketColumn >= 0) {
-                mBucketNames = new ArrayList<>(20);
-                mBucketImages = new SparseArray<>(20);
-            }
+        public long getCacheSize() {
+            return mCacheSize;
+        }
 
-            int index = 0;
+        public long getCacheMaxSize() {
+            return mCacheMaxSize;
+        }
 
-            if (cursor.moveToFirst()) {
-                do {
-                    long imageId = cursor.getLong(idColumn);
+        public long getCacheEvictionCount() {
+            return mCacheEvictionCount;
+        }
 
-                    mImageIds[index] = imageId;
+        /**
+         * @return Thumbnail loads waiting for a worker.
+         */
+        public int getQueueDepth() {
+            return mQueueDepth;
+        }
 
-                    if (bucketColumn >= 0) {
-                        String bucketName = cursor.getString(bucketColumn);
+        public int getMaxQueueDepth() {
+            return mMaxQueueDepth;
+        }
 
-                        int bucketIndex = mBucketNames.indexOf(bucketName);
+        /**
+         * @return Requests cancelled before their thumbnail was ready.
+         */
+        public long getCancelledRequestCount() {
+            return mCancelledRequestCount;
+        }
 
-                        if (bucketIndex == -1) {
-                            bucketIndex = mBucketNames.size();
+        /**
+         * @return Loads that were never started because no one was waiting for them anymore.
+         */
+        public long getDroppedTaskCount() {
+            return mDroppedTaskCount;
+        }
 
-                            mBucketNames.add(bucketName);
-                        }
+    }
 
-                        List<Integer> bucketImages = mBucketImages.get(bucketIndex);
+    private static GalleryAccess mInstance = null;
 
-                        if (bucketImages == null) {
-                            bucketImages = new ArrayList<>(count / 20);
+    public static GalleryAccess getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new GalleryAccess(context.getApplicationContext());
+        }
 
-                            mBucketImages.put(bucketIndex, bucketImages);
-                        }
+        return mInstance;
+    }
 
-                        bucketImages.add(index);
-                    }
+    /**
+     * Stops watching MediaStore and memory pressure, shuts down the worker threads and forgets the
+     * instance so that the next {@link #getInstance(Context)} starts over. For tests that each need
+     * a fresh gallery. The released instance can not be used anymore.
+     */
+    @VisibleForTesting
+    static void releaseInstance() {
+        GalleryAccess instance = mInstance;
 
-                    index++;
-                } while (cursor.moveToNext());
-            }
+        if (instance == null) {
+            return;
+        }
 
-            cursor.close();
+        mInstance = null;
 
-            synchronized (this) {
-                mPreparing = false;
-                mPrepared = true;
+        instance.mContext.unregisterComponentCallbacks(instance.mComponentCallbacks);
 
-                notifyPrepared();
+        synchronized (instance) {
+            if (instance.mObservingChanges) {
+                instance.mObservingChanges = false;
+
+                instance.mContext.getContentResolver().unregisterContentObserver(instance.mContentObserver);
             }
         }
 
-    };
+        instance.cancelPendingThumbnails();
 
-    private void notifyPrepared() {
-        mTaskManager.runTask(TaskManager.MAIN, mNotifyPreparedTask, 0);
+        instance.mExecutor.shutdown();
     }
 
-    private Runnable mNotifyPreparedTask = new Runnable() {
-
-        @Override
-        public void run() {
-            List<OnPreparedListener> listeners;
+    private Context mContext;
 
-            synchronized (GalleryAccess.this) {
-                listeners = new ArrayList<>(mOnPreparedListeners);
-            }
+    private int mThumbnailSize;
 
-            for (OnPreparedListener listener: listeners) {
-                listener.onGalleryAccessPrepared(GalleryAccess.this);
-            }
-        }
+    // Only used to get back to the main thread.
+    private TaskManager mTaskManager = null;
 
-    };
+    private PickerExecutor mExecutor;
 
-    private class BitmapCache {
+    // Thumbnails and placeholders are handed to their receivers through this, never under the lock.
+    private FrameDelivery mDelivery = new FrameDelivery();
 
-        private long mAvailable;
+    private boolean mInitialized = false;
+    private boolean mPrepared = false;
+    // Read without the lock by the decode workers.
+    private volatile boolean mPreparing = false;
 
-        private HashMap<Uri, WeakReference<Drawable>> mDrawables = new HashMap<>(50);
-        private HashMap<Uri, Bitmap> mBitmaps = new HashMap<>(50);
+    private List<OnPreparedListener> mOnPreparedListeners = new ArrayList<>();
+    private List<OnIndexChangedListener> mOnIndexChangedListeners = new ArrayList<>();
 
-        public BitmapCache(long maxAllocation) {
-            mAvailable = maxAllocation;
-        }
+    // Only replaced on the main thread. Read from any thread without a lock. The index never changes
+    // so readers that copy the reference once see a consistent one for as long as they hold it.
+    private volatile GalleryIndex mIndex = GalleryIndex.EMPTY;
 
-        synchronized public Drawable get(Uri uri) {
-            WeakReference<Drawable> reference = mDrawables.get(uri);
+    // The most recent index built in the background. Main thread catches up to it.
+    private GalleryIndex mLatestIndex = GalleryIndex.EMPTY;
 
-            if (reference != null) {
-                Drawable drawable = reference.get();
+    // Placeholders decoded for images whose index had none, by image id. Merged into every index
+    // that is built and into the snapshot. Written by the decode workers.
+    private ConcurrentHashMap<Long, Integer> mDecodedPlaceholders = new ConcurrentHashMap<>();
 
-                if (drawable == null) {
-                    Bitmap bitmap = mBitmaps.get(uri);
+    // Guarded by the instance's lock.
+    private boolean mObservingChanges = false;
 
-                    drawable = new BitmapDrawable(mContext.getResources(), bitmap);
+    private long mPrepareStartTime = 0;
 
-                    mDrawables.put(uri, new WeakReference<>(drawable));
-                }
+    // Recording target. Null while no metrics listener is registered so nothing is recorded.
+    private volatile Metrics mMetrics = null;
+    private Metrics mMetricsRecord = new Metrics();
+    private boolean mUpdateScheduled = false;
+    private boolean mUpdateRequested = false;
+    private AtomicBoolean mSnapshotWriteScheduled = new AtomicBoolean(false);
 
-                return drawable;
-            }
+    private BitmapPool mBitmapPool;
+    private BitmapCache mBitmapCache;
+    private DiskThumbnailCache mDiskCache;
+    private BitmapPool mMicroBitmapPool;
+    private BitmapCache mMicroCache;
+    private DiskThumbnailCache mMicroDiskCache;
+    private GalleryIndexSnapshot mSnapshot;
+    private ConcurrentHashMap<Long, GetThumbnailTask> mThumbnailTasks = new ConcurrentHashMap<>(64);
 
-            return null;
-        }
+    // Guards the queues below and the state of the thumbnail tasks. Separate from the lock of
+    // GalleryAccess so binding cells never waits for the scan or for listeners. Never held while
+    // decoding or calling out, and the lock of GalleryAccess is never taken while holding it.
+    private final Object mRequestLock = new Object();
 
-        synchronized public Drawable put(Uri uri, Bitmap bitmap) {
-            Bitmap cachedBitmap = mBitmaps.get(uri);
+    // Visible requests are served last in first out so the cells that are on screen right now come
+    // first. Prefetches are served in the order they were requested which is the nearest first.
+    private ArrayDeque<GetThumbnailTask> mVisibleQueue = new ArrayDeque<>(64);
+    private ArrayDeque<GetThumbnailTask> mPrefetchQueue = new ArrayDeque<>(64);
 
-            if (cachedBitmap != null) {
-                int size = cachedBitmap.getWidth() * cachedBitmap.getHeight() * 4;
+    // Prewarms are kept apart so scrolling can not push them out before the picker is shown.
+    private ArrayDeque<GetThumbnailTask> mPrewarmQueue = new ArrayDeque<>(64);
 
-                cachedBitmap.recycle();
+    // Decode workers queued or running. Each drains the queues above until they are empty.
+    private int mDecodeWorkerCount = 0;
 
-                mAvailable += size;
-            }
+    private volatile ThumbnailLoader mThumbnailLoader;
+    private volatile Bitmap.Config mOpaqueThumbnailConfig = Bitmap.Config.ARGB_8888;
 
-            Drawable drawable = new BitmapDrawable(mContext.getResources(), bitmap);
+    private GalleryAccess(Context context) {
+        mContext = context;
 
-            WeakReference<Drawable> reference = new WeakReference<>(drawable);
+        mThumbnailSize = context.getResources().getDisplayMetrics().widthPixels / 3;
 
-            mDrawables.put(uri, reference);
-            mBitmaps.put(uri, bitmap);
+        mBitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+        mBitmapCache = new BitmapCache(context.getResources(), mBitmapPool, Runtime.getRuntime().maxMemory() / 8);
+        mDiskCache = new DiskThumbnailCache(context, DISK_CACHE_DIRECTORY, DEFAULT_DISK_CACHE_SIZE);
 
-            int size = bitmap.getWidth() * bitmap.getHeight() * 4;
-            mAvailable -= size;
+        // Micro thumbnails take a few KB each so many more of them are kept.
+        mMicroBitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 128);
+        mMicroCache = new BitmapCache(context.getResources(), mMicroBitmapPool, Runtime.getRuntime().maxMemory() / 32);
+        mMicroDiskCache = new DiskThumbnailCache(context, MICRO_DISK_CACHE_DIRECTORY, DEFAULT_MICRO_DISK_CACHE_SIZE);
+        mSnapshot = new GalleryIndexSnapshot(context);
 
-            while (mAvailable < 0) {
-                Uri freeUri = findFreeBitmap();
+        mThumbnailLoader = new StreamThumbnailLoader(context);
 
-                if (freeUri == null) {
-                    break;
-                }
+        mExecutor = new PickerExecutor();
 
-                mDrawables.remove(freeUri);
+        context.registerComponentCallbacks(mComponentCallbacks);
+    }
 
-                Bitmap freeBitmap = mBitmaps.remove(freeUri);
+    private ComponentCallbacks2 mComponentCallbacks = new ComponentCallbacks2() {
 
-                if (freeBitmap == null) {
-                    continue;
-                }
+        @Override
+        public void onTrimMemory(int level) {
+            trimMemory(level);
+        }
 
-                size = freeBitmap.getWidth() * freeBitmap.getHeight() * 4;
+        @Override
+        public void onLowMemory() {
+            trimMemory(TRIM_MEMORY_COMPLETE);
+        }
 
-                freeBitmap.recycle();
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) { }
 
-                mAvailable += size;
-            }
+    };
 
-            return drawable;
+    /**
+     * Once the picker is hidden or memory is critical, every thumbnail in memory is dropped. While
+     * it is shown and memory is getting low, the caches are trimmed to a part of their size.
+     */
+    private void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mBitmapCache.clear();
+            mMicroCache.clear();
+
+            mBitmapPool.trimToSize(0);
+            mMicroBitmapPool.trimToSize(0);
         }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            int divisor = level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW ? 4 : 2;
 
-        private Uri findFreeBitmap() {
-            for (Uri uri: mDrawables.keySet()) {
-                WeakReference<Drawable> reference = mDrawables.get(uri);
-
-                if (reference == null) {
-                    return uri;
-                }
-            }
+            mBitmapCache.trimToSize(mBitmapCache.getMaxSize() / divisor);
+            mMicroCache.trimToSize(mMicroCache.getMaxSize() / divisor);
 
-            return null;
+            mBitmapPool.trimToSize(mBitmapPool.getSize() / divisor);
+            mMicroBitmapPool.trimToSize(mMicroBitmapPool.getSize() / divisor);
+        }
+        else {
+            return;
         }
 
+        cancelPendingThumbnails();
     }
 
-    private class GetThumbnailTask implements Runnable {
+    /**
+     * Drops the prefetches and the visible loads that are not waited for anymore. Loads that have
+     * started are left to finish.
+     */
+    private void cancelPendingThumbnails() {
+        synchronized (mRequestLock) {
+            for (GetThumbnailTask task: mPrefetchQueue) {
+                task.mPrefetch = false;
+                task.cancelIfUnused();
+            }
 
-        private Uri mUri;
+            mPrefetchQueue.clear();
 
-        private List<WeakReference<OnThumbnailReadyReceiver>> mReceivers = new ArrayList<>(2);
+            for (GetThumbnailTask task: mPrewarmQueue) {
+                task.mPrewarm = false;
+                task.cancelIfUnused();
+            }
 
-        private Drawable mResult = null;
+            mPrewarmQueue.clear();
 
-        private GetThumbnailTask(Uri uri) {
-            mUri = uri;
+            trimVisibleQueue();
         }
+    }
 
-        synchronized public void addReceiver(final OnThumbnailReadyReceiver receiver) {
-            if (mResult != null) {
-                mTaskManager.runTask(TaskManager.MAIN, new Runnable() {
-
-                    @Override
-                    public void run() {
-                        receiver.onThumbnailReady(mUri, mResult);
-                    }
+    /**
+     * The task manager is only used to post to the main thread. Background work runs on the
+     * picker's own threads.
+     */
+    public void setTaskManager(TaskManager taskManager) {
+        if (mInitialized) {
+            return;
+        }
 
-                }, 0);
-                return;
-            }
+        mTaskManager = taskManager;
+    }
 
-            mReceivers.add(new WeakReference<>(receiver));
+    private void initialize() {
+        if (mInitialized) {
+            return;
         }
 
-        @Override
-        public void run() {
-            ContentResolver contentResolver = mContext.getContentResolver();
+        if (mTaskManager == null) {
+            mTaskManager = DefaultTaskManager.getInstance();
+        }
 
-            Bitmap bitmap;
+        mInitialized = true;
+    }
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                Size size = new Size(mThumbnailSize, mThumbnailSize);
+    synchronized public void prepare() {
+        if (mPrepared || mPreparing) {
+            return;
+        }
 
-                try {
-                    bitmap = contentResolver.loadThumbnail(mUri, size, null);
-                } catch (IOException e) {
-                    Log.e(TAG, "Failed to get bitmap for uri: " + mUri, e);
+        mPreparing = true;
 
-                    synchronized (GalleryAccess.this) {
-                        mThumbnailTasks.remove(mUri);
-                    }
+        mPrepareStartTime = SystemClock.uptimeMillis();
 
-                    return;
-                }
-            }
-            else {
-                long imageId = ContentUris.parseId(mUri);
+        initialize();
 
-                bitmap = MediaStore.Images.Thumbnails.getThumbnail(contentResolver, imageId,
-                        MediaStore.Images.Thumbnails.MINI_KIND, null);
+        mExecutor.executeIo(mPrepareTask, 0);
+    }
 
-                if (bitmap == null) {
-                    Log.e(TAG, "Failed to get bitmap for uri: " + mUri);
+    /**
+     * Builds the index and loads the thumbnails of the first images of the gallery into memory
+     * ahead of time, for example when a screen that may open the picker is shown. Thumbnails are
+     * loaded after the index is ready and only when nothing is waiting to be shown. They are not
+     * dropped for prefetches made while scrolling.
+     * @param thumbnailCount Number of thumbnails to load. More than
+     *                       {@link #MAX_PREWARM_THUMBNAIL_COUNT} loads only that many.
+     * @return A handle to stop loading the thumbnails.
+     */
+    public PrewarmRequest prewarm(int thumbnailCount) {
+        prepare();
 
-                    synchronized (GalleryAccess.this) {
-                        mThumbnailTasks.remove(mUri);
-                    }
+        PrewarmTask prewarmTask = new PrewarmTask(Math.min(thumbnailCount, MAX_PREWARM_THUMBNAIL_COUNT));
 
-                    return;
-                }
-            }
+        // Registered first so no index published in between is missed.
+        registerOnIndexChangedListener(prewarmTask);
 
-            mResult = mBitmapCache.put(mUri, bitmap);
+        prewarmTask.prefetch(mIndex);
 
-            mTaskManager.runTask(TaskManager.MAIN, mNotifyResultTask, 0);
+        if (isPrepared()) {
+            unregisterOnIndexChangedListener(prewarmTask);
         }
 
-        private Runnable mNotifyResultTask = new Runnable() {
-
-            @Override
-            public void run() {
-                synchronized (GalleryAccess.this) {
-                    List<WeakReference<OnThumbnailReadyReceiver>> receivers = new ArrayList<>(mReceivers);
+        return prewarmTask;
+    }
+
+    synchronized public boolean isPrepared() {
+        return mPrepared;
+    }
+
+    synchronized public void registerOnPreparedListener(final OnPreparedListener onPreparedListener) {
+        if (mPrepared) {
+            mTaskManager.runTask(TaskManager.MAIN, new Runnable() {
+
+                @Override
+                public void run() {
+                    onPreparedListener.onGalleryAccessPrepared(GalleryAccess.this);
+                }
+
+            }, 0);
+            return;
+        }
+
+        mOnPreparedListeners.remove(onPreparedListener);
+        mOnPreparedListeners.add(onPreparedListener);
+    }
+
+    synchronized public void unregisterOnPreparedListener(OnPreparedListener onPreparedListener) {
+        mOnPreparedListeners.remove(onPreparedListener);
+    }
+
+    synchronized public void registerMetricsListener(MetricsListener listener) {
+        synchronized (mMetricsRecord) {
+            mMetricsRecord.mListeners.remove(listener);
+            mMetricsRecord.mListeners.add(listener);
+        }
+
+        mMetrics = mMetricsRecord;
+    }
+
+    synchronized public void unregisterMetricsListener(MetricsListener listener) {
+        synchronized (mMetricsRecord) {
+            mMetricsRecord.mListeners.remove(listener);
+
+            if (!mMetricsRecord.mListeners.isEmpty()) {
+                return;
+            }
+        }
+
+        mMetrics = null;
+    }
+
+    /**
+     * @return A copy of what has been recorded while metrics listeners were registered, along with
+     * the current state of the thumbnail cache and queues.
+     */
+    public Metrics getMetrics() {
+        Metrics metrics = new Metrics(mMetricsRecord);
+
+        metrics.mCacheHitCount = mBitmapCache.getHitCount();
+        metrics.mCacheMissCount = mBitmapCache.getMissCount();
+        metrics.mCacheSize = mBitmapCache.getSize();
+        metrics.mCacheMaxSize = mBitmapCache.getMaxSize();
+        metrics.mCacheEvictionCount = mBitmapCache.getEvictionCount();
+
+        synchronized (mRequestLock) {
+            metrics.mQueueDepth = mVisibleQueue.size() + mPrefetchQueue.size() + mPrewarmQueue.size();
+        }
+
+        return metrics;
+    }
+
+    synchronized public void registerOnIndexChangedListener(OnIndexChangedListener listener) {
+        mOnIndexChangedListeners.remove(listener);
+        mOnIndexChangedListeners.add(listener);
+    }
+
+    synchronized public void unregisterOnIndexChangedListener(OnIndexChangedListener listener) {
+        mOnIndexChangedListeners.remove(listener);
+    }
+
+    /*
+     * The index accessors below never block. They reflect what has been scanned so far, which may be
+     * less than the whole gallery until isPrepared() is true. The index only changes on the main
+     * thread, right before the index changed listeners are called, so consecutive calls on the main
+     * thread are consistent. Other threads can compare getIndexVersion() before and after.
+     */
+
+    /**
+     * @return Changes every time a new index is published.
+     * @see GalleryIndexChange#getVersion()
+     */
+    public long getIndexVersion() {
+        return mIndex.getVersion();
+    }
+
+    /**
+     * @return The index the accessors currently read. It never changes so it can be handed to
+     * another thread.
+     */
+    GalleryIndex getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Runs the task in the picker's I/O lane.
+     */
+    void executeInBackground(Runnable task) {
+        mExecutor.executeIo(task, 0);
+    }
+
+    public int getBucketCount() {
+        return mIndex.getBucketCount();
+    }
+
+    public String getBucketAtPosition(int position) {
+        return mIndex.getBucketName(position);
+    }
+
+    public int getImageCount() {
+        return mIndex.getImageCount();
+    }
+
+    public int getImageCount(int bucketIndex) {
+        return mIndex.getImageCount(bucketIndex);
+    }
+
+    /**
+     * @return The id of the newest image of the bucket to show as its cover, or -1 if it is empty.
+     */
+    public long getBucketCoverImageId(int bucketIndex) {
+        GalleryIndex index = mIndex;
+
+        // Images of a bucket are in the order of the gallery, which is the newest first.
+        return index.getImageCount(bucketIndex) == 0 ? -1 : index.getImageId(bucketIndex, 0);
+    }
+
+    public Uri getImageUri(int position) {
+        return getImageUriForId(mIndex.getImageId(position));
+    }
+
+    public Uri getImageUri(int bucketIndex, int position) {
+        return getImageUriForId(mIndex.getImageId(bucketIndex, position));
+    }
+
+    /**
+     * Image ids can be used in place of Uris where allocating one per call would add up, such as
+     * binding grid cells.
+     * @see #getImageUriForId(long)
+     */
+    public long getImageId(int position) {
+        return mIndex.getImageId(position);
+    }
+
+    public long getImageId(int bucketIndex, int position) {
+        return mIndex.getImageId(bucketIndex, position);
+    }
+
+    public static Uri getImageUriForId(long imageId) {
+        return ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, imageId);
+    }
+
+    public boolean containsImage(Uri imageUri) {
+        return containsImage(ContentUris.parseId(imageUri));
+    }
+
+    public boolean containsImage(long imageId) {
+        return mIndex.getImagePosition(imageId) != -1;
+    }
+
+    /**
+     * @return Clockwise rotation of the image in degrees as MediaStore read it from its EXIF, or 0
+     * if the image is not in the index.
+     */
+    public int getImageOrientation(long imageId) {
+        GalleryIndex index = mIndex;
+
+        int position = index.getImagePosition(imageId);
+
+        return position == -1 ? 0 : index.getOrientationAt(position);
+    }
+
+    public long getThumbnailCacheMaxSize() {
+        return mBitmapCache.getMaxSize();
+    }
+
+    /**
+     * @param maxSize Maximum number of bytes the in memory thumbnails may take. Thumbnails that are
+     *                currently displayed are kept even if the cache goes over this size.
+     */
+    public void setThumbnailCacheMaxSize(long maxSize) {
+        mBitmapCache.setMaxSize(maxSize);
+    }
+
+    public long getThumbnailCacheSize() {
+        return mBitmapCache.getSize();
+    }
+
+    public long getThumbnailCacheHitCount() {
+        return mBitmapCache.getHitCount();
+    }
+
+    public long getThumbnailCacheMissCount() {
+        return mBitmapCache.getMissCount();
+    }
+
+    public long getThumbnailCacheEvictionCount() {
+        return mBitmapCache.getEvictionCount();
+    }
+
+    /**
+     * @param maxSize Maximum number of bytes of evicted thumbnails that are kept to be decoded into
+     *                again. Separate from the thumbnail cache size.
+     */
+    public void setBitmapPoolMaxSize(long maxSize) {
+        mBitmapPool.setMaxSize(maxSize);
+    }
+
+    /**
+     * @param maxSize Maximum number of bytes the thumbnails stored in the app's cache directory may take.
+     */
+    public void setThumbnailDiskCacheMaxSize(long maxSize) {
+        mDiskCache.setMaxSize(maxSize);
+    }
+
+    /**
+     * @param maxSize Maximum number of bytes the micro thumbnails kept in memory may take.
+     */
+    public void setMicroThumbnailCacheMaxSize(long maxSize) {
+        mMicroCache.setMaxSize(maxSize);
+    }
+
+    /**
+     * Thumbnails already in the memory or disk cache are not loaded again.
+     * @see StreamThumbnailLoader
+     * @see MediaStoreThumbnailLoader
+     */
+    public void setThumbnailLoader(ThumbnailLoader thumbnailLoader) {
+        mThumbnailLoader = thumbnailLoader;
+    }
+
+    /**
+     * @param config Config of the thumbnails of images that have no transparency. RGB_565 takes half
+     *               the memory of the default ARGB_8888.
+     */
+    public void setOpaqueThumbnailConfig(Bitmap.Config config) {
+        mOpaqueThumbnailConfig = config;
+    }
+
+    /**
+     * @return Two packed RGB565 colors averaged from the top and bottom halves of the image, or 0
+     * if its thumbnail has not been decoded yet. Read from memory so it can be painted during bind.
+     * @see #getPlaceholderTopColor(int)
+     * @see #getPlaceholderBottomColor(int)
+     */
+    public int getImagePlaceholder(int position) {
+        GalleryIndex index = mIndex;
+
+        return withDecodedPlaceholder(index.getPlaceholderAt(position), index.getImageId(position));
+    }
+
+    public int getImagePlaceholder(int bucketIndex, int position) {
+        GalleryIndex index = mIndex;
+
+        return withDecodedPlaceholder(index.getPlaceholderAt(bucketIndex, position), index.getImageId(bucketIndex, position));
+    }
+
+    /**
+     * @param placeholder The image's placeholder in the index.
+     * @return The placeholder decoded since the index was built if it had none.
+     */
+    private int withDecodedPlaceholder(int placeholder, long imageId) {
+        if (placeholder != 0 || mDecodedPlaceholders.isEmpty()) {
+            return placeholder;
+        }
+
+        Integer decoded = mDecodedPlaceholders.get(imageId);
+
+        return decoded == null ? 0 : decoded;
+    }
+
+    /**
+     * Forgets the decoded placeholders that the index has. Every index built after it is derived
+     * from it so they are not needed anymore.
+     */
+    private void pruneDecodedPlaceholders(GalleryIndex index) {
+        for (Map.Entry<Long, Integer> entry: mDecodedPlaceholders.entrySet()) {
+            int position = index.getImagePosition(entry.getKey());
+
+            if (position == -1 || index.getPlaceholderAt(position) != 0) {
+                mDecodedPlaceholders.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public static int getPlaceholderTopColor(int placeholder) {
+        return rgb565ToColor(placeholder >>> 16);
+    }
+
+    public static int getPlaceholderBottomColor(int placeholder) {
+        return rgb565ToColor(placeholder & 0xFFFF);
+    }
+
+    private static int rgb565ToColor(int rgb565) {
+        int red = (rgb565 >> 11) & 0x1F;
+        int green = (rgb565 >> 5) & 0x3F;
+        int blue = rgb565 & 0x1F;
+
+        return Color.rgb((red << 3) | (red >> 2), (green << 2) | (green >> 4), (blue << 3) | (blue >> 2));
+    }
+
+    private static int colorToRgb565(int red, int green, int blue) {
+        return ((red >> 3) << 11) | ((green >> 2) << 5) | (blue >> 3);
+    }
+
+    /**
+     * @return 0 if the bitmap's pixels can not be read.
+     */
+    private static int computePlaceholder(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && bitmap.getConfig() == Bitmap.Config.HARDWARE) {
+            return 0;
+        }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+
+        int placeholder = 0;
+
+        // A 4 by 2 grid of samples from each half.
+        for (int half = 0; half < 2; half++) {
+            int red = 0;
+            int green = 0;
+            int blue = 0;
+
+            for (int row = 0; row < 2; row++) {
+                int y = half * height / 2 + (row * 2 + 1) * height / 8;
+
+                for (int column = 0; column < 4; column++) {
+                    int pixel = bitmap.getPixel((column * 2 + 1) * width / 8, y);
+
+                    red += Color.red(pixel);
+                    green += Color.green(pixel);
+                    blue += Color.blue(pixel);
+                }
+            }
+
+            placeholder = (placeholder << 16) | colorToRgb565(red / 8, green / 8, blue / 8);
+        }
+
+        // 0 means no placeholder. Black on black becomes black on nearly black.
+        return placeholder == 0 ? 1 : placeholder;
+    }
+
+    // Called by the decode workers without any lock.
+    private void setPlaceholder(long imageId, int placeholder) {
+        // Indices are never written to. Merged into the next one that is built and into the snapshot.
+        mDecodedPlaceholders.put(imageId, placeholder);
+
+        if (mSnapshotWriteScheduled.compareAndSet(false, true)) {
+            mExecutor.executeIo(mWriteSnapshotTask, SNAPSHOT_WRITE_DELAY);
+        }
+    }
+
+    private Runnable mWriteSnapshotTask = new Runnable() {
+
+        @Override
+        public void run() {
+            GalleryIndex index;
+
+            // Placeholders decoded from here on schedule another write.
+            mSnapshotWriteScheduled.set(false);
+
+            synchronized (GalleryAccess.this) {
+                // A partial index must never be written. The scan writes the complete one itself.
+                if (!mPrepared) {
+                    return;
+                }
+
+                index = mLatestIndex;
+            }
+
+            mSnapshot.write(index, mDecodedPlaceholders);
+        }
+
+    };
+
+    /**
+     * @return The micro thumbnail of the image if it is in memory, or null. Meant to be shown scaled
+     * up right away while the thumbnail loads.
+     */
+    public Drawable getPlaceholder(Uri imageUri) {
+        return getPlaceholder(ContentUris.parseId(imageUri));
+    }
+
+    public Drawable getPlaceholder(long imageId) {
+        return mMicroCache.get(imageId);
+    }
+
+    /**
+     * The receiver is called on the main thread at the start of a frame, together with the other
+     * thumbnails that are ready. It is weakly referenced while the thumbnail loads.
+     * @return A handle to cancel the request, for example when the view showing it is recycled.
+     */
+    public ThumbnailRequest getThumbnail(Uri imageUri, OnThumbnailReadyReceiver receiver) {
+        long imageId = ContentUris.parseId(imageUri);
+
+        Drawable drawable = mBitmapCache.get(imageId);
+
+        if (drawable != null) {
+            DeliverThumbnailTask deliverTask = new DeliverThumbnailTask(imageUri, drawable, receiver);
+
+            mDelivery.post(deliverTask);
+
+            return deliverTask;
+        }
+
+        return loadThumbnail(imageId, receiver);
+    }
+
+    /**
+     * @return The thumbnail if it is in memory, or null. Nothing is allocated to look it up.
+     * @see #loadThumbnail(long, OnThumbnailReadyReceiver)
+     */
+    public Drawable getCachedThumbnail(long imageId) {
+        return mBitmapCache.get(imageId);
+    }
+
+    /**
+     * Same as {@link #getThumbnail(Uri, OnThumbnailReadyReceiver)} for when
+     * {@link #getCachedThumbnail(long)} has just returned null. The receiver is held weakly so it
+     * can be an object that is reused, like a view holder. Only waits for other thumbnail requests,
+     * never for the scan or for listeners.
+     */
+    public ThumbnailRequest loadThumbnail(long imageId, OnThumbnailReadyReceiver receiver) {
+        synchronized (mRequestLock) {
+            // It may have been loaded since. Looked at under the lock so its task can not be gone yet.
+            Drawable drawable = mBitmapCache.peek(imageId);
+
+            if (drawable != null) {
+                DeliverThumbnailTask deliverTask = new DeliverThumbnailTask(getImageUriForId(imageId), drawable, receiver);
+
+                mDelivery.post(deliverTask);
+
+                return deliverTask;
+            }
+
+            GetThumbnailTask task = mThumbnailTasks.get(imageId);
+
+            if (task == null) {
+                task = new GetThumbnailTask(imageId);
+
+                mThumbnailTasks.put(imageId, task);
+            }
+
+            if (!task.mStarted) {
+                // Queued again even if already queued so the most recent request comes first.
+                enqueue(task, true);
+            }
+
+            return task.addReceiver(receiver);
+        }
+    }
+
+    /**
+     * Loads the thumbnail into the cache ahead of time without anyone waiting for it. Prefetches
+     * are served after all the thumbnails that are waited for.
+     */
+    public void prefetchThumbnail(Uri imageUri) {
+        prefetchThumbnail(ContentUris.parseId(imageUri));
+    }
+
+    public void prefetchThumbnail(long imageId) {
+        if (mBitmapCache.contains(imageId)) {
+            return;
+        }
+
+        synchronized (mRequestLock) {
+            GetThumbnailTask task = mThumbnailTasks.get(imageId);
+
+            if (task == null) {
+                task = new GetThumbnailTask(imageId);
+
+                mThumbnailTasks.put(imageId, task);
+            }
+            else if (task.mPrefetch || task.mStarted) {
+                return;
+            }
+
+            task.mPrefetch = true;
+
+            enqueue(task, false);
+        }
+    }
+
+    /**
+     * Cancels a prefetch if it has not started yet and no one else is waiting for the thumbnail.
+     */
+    public void cancelPrefetch(Uri imageUri) {
+        cancelPrefetch(ContentUris.parseId(imageUri));
+    }
+
+    public void cancelPrefetch(long imageId) {
+        // Most prefetches behind the scroll have finished by the time they are cancelled.
+        if (!mThumbnailTasks.containsKey(imageId)) {
+            return;
+        }
+
+        synchronized (mRequestLock) {
+            GetThumbnailTask task = mThumbnailTasks.get(imageId);
+
+            if (task != null) {
+                task.mPrefetch = false;
+
+                task.cancelIfUnused();
+            }
+        }
+    }
+
+    private void prewarmThumbnail(long imageId) {
+        if (mBitmapCache.contains(imageId)) {
+            return;
+        }
+
+        synchronized (mRequestLock) {
+            GetThumbnailTask task = mThumbnailTasks.get(imageId);
+
+            if (task == null) {
+                task = new GetThumbnailTask(imageId);
+
+                mThumbnailTasks.put(imageId, task);
+            }
+            else if (task.mPrewarm || task.mStarted) {
+                return;
+            }
+
+            task.mPrewarm = true;
+
+            mPrewarmQueue.addLast(task);
+
+            // Only when prewarmed again and again. The oldest ones are of the earliest request.
+            while (mPrewarmQueue.size() > MAX_PREWARM_QUEUE_SIZE) {
+                GetThumbnailTask droppedTask = mPrewarmQueue.pollFirst();
+
+                droppedTask.mPrewarm = false;
+                droppedTask.cancelIfUnused();
+            }
+
+            Metrics metrics = mMetrics;
+
+            if (metrics != null) {
+                metrics.recordQueueDepth(mVisibleQueue.size() + mPrefetchQueue.size() + mPrewarmQueue.size());
+            }
+
+            startDecodeWorkers();
+        }
+    }
+
+    private void cancelPrewarm(long imageId) {
+        if (!mThumbnailTasks.containsKey(imageId)) {
+            return;
+        }
+
+        synchronized (mRequestLock) {
+            GetThumbnailTask task = mThumbnailTasks.get(imageId);
+
+            if (task != null) {
+                task.mPrewarm = false;
+
+                task.cancelIfUnused();
+            }
+        }
+    }
+
+    // Called holding mRequestLock.
+    private void enqueue(GetThumbnailTask task, boolean visible) {
+        if (visible) {
+            // Moved to the end if already queued.
+            mVisibleQueue.remove(task);
+            mVisibleQueue.addLast(task);
+
+            if (mVisibleQueue.size() > MAX_VISIBLE_QUEUE_SIZE) {
+                trimVisibleQueue();
+            }
+        }
+        else {
+            mPrefetchQueue.addLast(task);
+
+            // The oldest prefetches are the furthest behind the scroll by now.
+            while (mPrefetchQueue.size() > MAX_PREFETCH_QUEUE_SIZE) {
+                GetThumbnailTask droppedTask = mPrefetchQueue.pollFirst();
+
+                droppedTask.mPrefetch = false;
+                droppedTask.cancelIfUnused();
+            }
+        }
+
+        Metrics metrics = mMetrics;
+
+        if (metrics != null) {
+            metrics.recordQueueDepth(mVisibleQueue.size() + mPrefetchQueue.size() + mPrewarmQueue.size());
+        }
+
+        startDecodeWorkers();
+    }
+
+    /**
+     * Drops the visible loads no one is waiting for anymore. Called holding mRequestLock.
+     */
+    private void trimVisibleQueue() {
+        Iterator<GetThumbnailTask> iterator = mVisibleQueue.iterator();
+
+        while (iterator.hasNext()) {
+            GetThumbnailTask task = iterator.next();
+
+            if (task.mStarted || task.mCancelled || !task.hasReceivers()) {
+                iterator.remove();
+
+                task.cancelIfUnused();
+            }
+        }
+    }
+
+    private void startDecodeWorkers() {
+        synchronized (mRequestLock) {
+            if (mVisibleQueue.isEmpty() && mPrefetchQueue.isEmpty() && mPrewarmQueue.isEmpty()) {
+                return;
+            }
+
+            while (mDecodeWorkerCount < mExecutor.getDecodeThreadCount() && mExecutor.executeDecode(mDecodeWorker)) {
+                mDecodeWorkerCount++;
+            }
+        }
+    }
+
+    private Runnable mDecodeWorker = new Runnable() {
+
+        @Override
+        public void run() {
+            // Set once pollThumbnailTask() has given up the worker's place.
+            boolean stopped = false;
+
+            try {
+                GetThumbnailTask task;
+
+                // Each time picks whatever has the highest priority at that time.
+                while ((task = pollThumbnailTask()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException | OutOfMemoryError e) {
+                        Log.e(TAG, "Failed to load thumbnail of " + task.mUri, e);
+
+                        mThumbnailTasks.remove(task.mImageId, task);
+                    }
+                }
+
+                stopped = true;
+            } finally {
+                if (!stopped) {
+                    // Died on an error. Another worker takes over the queues.
+                    synchronized (mRequestLock) {
+                        mDecodeWorkerCount--;
+                    }
+
+                    startDecodeWorkers();
+                }
+            }
+        }
+
+    };
+
+    /**
+     * @return null if there is nothing to load, in which case the calling worker must stop.
+     */
+    private GetThumbnailTask pollThumbnailTask() {
+        synchronized (mRequestLock) {
+            while (!mVisibleQueue.isEmpty()) {
+                GetThumbnailTask task = mVisibleQueue.pollLast();
+
+                if (task.mStarted || task.mCancelled) {
+                    continue;
+                }
+
+                if (!task.hasReceivers()) {
+                    // Everyone waiting for it is gone. Still a prefetch maybe, otherwise dropped.
+                    task.cancelIfUnused();
+                    continue;
+                }
+
+                task.mStarted = true;
+
+                return task;
+            }
+
+            // Prewarms and prefetches wait for the scan so they do not hold it back. Workers are
+            // started again after it.
+            while (!mPreparing && !mPrewarmQueue.isEmpty()) {
+                GetThumbnailTask task = mPrewarmQueue.pollFirst();
+
+                if (task.mStarted || task.mCancelled) {
+                    continue;
+                }
+
+                task.mStarted = true;
+
+                return task;
+            }
+
+            while (!mPreparing && !mPrefetchQueue.isEmpty()) {
+                GetThumbnailTask task = mPrefetchQueue.pollFirst();
+
+                if (task.mStarted || task.mCancelled) {
+                    continue;
+                }
+
+                task.mStarted = true;
+
+                return task;
+            }
+
+            mDecodeWorkerCount--;
+
+            return null;
+        }
+    }
+
+    private Runnable mPrepareTask = new Runnable() {
+
+        @Override
+        public void run() {
+            GalleryIndex snapshot = mSnapshot.read();
+
+            if (snapshot != null) {
+                // Shown right away. Whatever changed since it was written is applied as a delta.
+                publishIndex(GalleryIndexChange.append(GalleryIndex.EMPTY, snapshot), true);
+
+                scheduleUpdate();
+                return;
+            }
+
+            ContentResolver contentResolver = mContext.getContentResolver();
+
+            Cursor cursor = contentResolver.query(
+                    MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                    SELECTION, null, null, SORT);
+
+            if (cursor == null) {
+                throw new RuntimeException("Image media content expected to exist but didn't.");
+            }
+
+            final int idColumn = cursor.getColumnIndex(IMAGE_ID);
+            final int nameColumn = cursor.getColumnIndex(IMAGE_DISPLAY_NAME);
+            final int bucketIdColumn = cursor.getColumnIndex(BUCKET_ID);
+            final int bucketColumn = cursor.getColumnIndex(BUCKET_DISPLAY_NAME);
+            final int dateColumn = cursor.getColumnIndex(DATE_MODIFIED);
+            final int orientationColumn = cursor.getColumnIndex(ORIENTATION);
+
+            final boolean hasBuckets = bucketIdColumn >= 0 && bucketColumn >= 0;
+
+            GalleryIndex.Builder builder = new GalleryIndex.Builder(cursor.getCount(), hasBuckets);
+            GalleryIndex index = GalleryIndex.EMPTY;
+
+            int nextPage = FIRST_PAGE_SIZE;
+
+            while (cursor.moveToNext()) {
+                long bucketId = hasBuckets ? cursor.getLong(bucketIdColumn) : 0;
+
+                // The bucket name is only needed the first time its bucket is seen.
+                String bucketName = hasBuckets && !builder.hasBucket(bucketId) ? cursor.getString(bucketColumn) : null;
+
+                int orientation = orientationColumn >= 0 ? cursor.getInt(orientationColumn) : 0;
+
+                builder.addImage(cursor.getLong(idColumn), cursor.getLong(dateColumn), orientation, 0, bucketId, bucketName);
+
+                if (builder.getImageCount() == nextPage) {
+                    GalleryIndex previousIndex = index;
+                    index = builder.build(mDecodedPlaceholders);
+
+                    publishIndex(GalleryIndexChange.append(previousIndex, index), false);
+
+                    nextPage *= 2;
+                }
+            }
+
+            cursor.close();
+
+            GalleryIndex previousIndex = index;
+            index = builder.build(mDecodedPlaceholders);
+
+            // Written before publishing so it can not overwrite a snapshot of a later update.
+            mSnapshot.write(index, mDecodedPlaceholders);
+
+            publishIndex(GalleryIndexChange.append(previousIndex, index), true);
+        }
+
+    };
+
+    private void scheduleUpdate() {
+        synchronized (this) {
+            if (mUpdateScheduled) {
+                mUpdateRequested = true;
+                return;
+            }
+
+            mUpdateScheduled = true;
+        }
+
+        mExecutor.executeIo(mUpdateTask, UPDATE_DELAY);
+    }
+
+    private ContentObserver mContentObserver = new ContentObserver(new Handler(Looper.getMainLooper())) {
+
+        @Override
+        public void onChange(boolean selfChange) {
+            scheduleUpdate();
+        }
+
+    };
+
+    private Runnable mUpdateTask = new Runnable() {
+
+        @Override
+        public void run() {
+            GalleryIndex index;
+
+            synchronized (GalleryAccess.this) {
+                mUpdateRequested = false;
+
+                index = mLatestIndex;
+            }
+
+            GalleryIndexChange change = null;
+
+            try {
+                change = computeChange(index);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to update the gallery index.", e);
+            }
+
+            if (change != null) {
+                publishIndex(change, false);
+
+                mSnapshot.write(change.getIndex(), mDecodedPlaceholders);
+            }
+
+            boolean updateAgain;
+
+            synchronized (GalleryAccess.this) {
+                mUpdateScheduled = false;
+
+                updateAgain = mUpdateRequested;
+            }
+
+            if (updateAgain) {
+                scheduleUpdate();
+            }
+        }
+
+    };
+
+    /**
+     * Queries only what changed since the given index was built.
+     * @return null if nothing has changed.
+     */
+    private GalleryIndexChange computeChange(GalleryIndex index) {
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        // Anything added or edited since has a newer DATE_MODIFIED or, if it was copied with its
+        // original date, a larger id.
+        String selection = DATE_MODIFIED + " >= ? OR " + IMAGE_ID + " > ?";
+        String[] selectionArgs = { String.valueOf(index.getMaxDateModified()), String.valueOf(index.getMaxImageId()) };
+
+        Cursor cursor = contentResolver.query(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                SELECTION, selection, selectionArgs, SORT);
+
+        if (cursor == null) {
+            return null;
+        }
+
+        final int idColumn = cursor.getColumnIndex(IMAGE_ID);
+        final int bucketIdColumn = cursor.getColumnIndex(BUCKET_ID);
+        final int bucketColumn = cursor.getColumnIndex(BUCKET_DISPLAY_NAME);
+        final int dateColumn = cursor.getColumnIndex(DATE_MODIFIED);
+        final int orientationColumn = cursor.getColumnIndex(ORIENTATION);
+
+        final boolean hasBuckets = index.hasBuckets();
+
+        final int imageCount = index.getImageCount();
+
+        boolean[] removed = new boolean[imageCount];
+        int removedCount = 0;
+
+        int rowCapacity = cursor.getCount();
+
+        long[] rowIds = new long[rowCapacity];
+        long[] rowDates = new long[rowCapacity];
+        int[] rowOrientations = new int[rowCapacity];
+        long[] rowBucketIds = new long[rowCapacity];
+        String[] rowBucketNames = new String[rowCapacity];
+        int rowCount = 0;
+
+        int newImageCount = 0;
+
+        while (cursor.moveToNext() && rowCount < rowCapacity) {
+            long imageId = cursor.getLong(idColumn);
+            long dateModified = cursor.getLong(dateColumn);
+
+            int position = index.getImagePosition(imageId);
+
+            if (position != -1) {
+                if (index.getDateModifiedAt(position) == dateModified) {
+                    continue;
+                }
+
+                // Edited. Removed from where it was and inserted at its new place.
+                removed[position] = true;
+                removedCount++;
+            }
+            else {
+                newImageCount++;
+            }
+
+            rowIds[rowCount] = imageId;
+            rowDates[rowCount] = dateModified;
+            rowOrientations[rowCount] = orientationColumn >= 0 ? cursor.getInt(orientationColumn) : 0;
+
+            if (hasBuckets) {
+                rowBucketIds[rowCount] = cursor.getLong(bucketIdColumn);
+                rowBucketNames[rowCount] = cursor.getString(bucketColumn);
+            }
+
+            rowCount++;
+        }
+
+        cursor.close();
+
+        // Deletions. The ids are only read if the row count says something is missing.
+        Cursor idCursor = contentResolver.query(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                new String[] { IMAGE_ID }, null, null, null);
+
+        if (idCursor != null) {
+            if (imageCount + newImageCount > idCursor.getCount()) {
+                boolean[] exists = new boolean[imageCount];
+
+                int column = idCursor.getColumnIndex(IMAGE_ID);
+
+                while (idCursor.moveToNext()) {
+                    int position = index.getImagePosition(idCursor.getLong(column));
+
+                    if (position != -1) {
+                        exists[position] = true;
+                    }
+                }
+
+                for (int position = 0; position < imageCount; position++) {
+                    if (!exists[position] && !removed[position]) {
+                        removed[position] = true;
+                        removedCount++;
+                    }
+                }
+            }
+
+            idCursor.close();
+        }
+
+        if (rowCount == 0 && removedCount == 0) {
+            return null;
+        }
+
+        int[] removedPositions = new int[removedCount];
+
+        for (int position = 0, i = 0; position < imageCount; position++) {
+            if (removed[position]) {
+                removedPositions[i++] = position;
+            }
+        }
+
+        int[] insertedPositions = new int[rowCount];
+
+        GalleryIndex.Builder builder = new GalleryIndex.Builder(imageCount - removedCount + rowCount, hasBuckets);
+
+        // Keeps the existing bucket indices.
+        for (int bucketIndex = 0; bucketIndex < index.getBucketCount(); bucketIndex++) {
+            builder.addBucket(index.getBucketId(bucketIndex), index.getBucketName(bucketIndex));
+        }
+
+        int row = 0;
+        int position = 0;
+
+        // Both are sorted by DATE_MODIFIED descending, merged the same way.
+        while (row < rowCount || position < imageCount) {
+            if (position < imageCount && removed[position]) {
+                position++;
+                continue;
+            }
+
+            if (row < rowCount && (position == imageCount || rowDates[row] >= index.getDateModifiedAt(position))) {
+                insertedPositions[row] = builder.getImageCount();
+
+                builder.addImage(rowIds[row], rowDates[row], rowOrientations[row], 0, rowBucketIds[row], rowBucketNames[row]);
+
+                row++;
+            }
+            else {
+                long bucketId = hasBuckets ? index.getBucketId(index.getImageBucket(position)) : 0;
+
+                builder.addImage(index.getImageId(position), index.getDateModifiedAt(position),
+                        index.getOrientationAt(position), index.getPlaceholderAt(position), bucketId, null);
+
+                position++;
+            }
+        }
+
+        return GalleryIndexChange.delta(index, builder.build(mDecodedPlaceholders), removedPositions, insertedPositions);
+    }
+
+    private void publishIndex(GalleryIndexChange change, boolean complete) {
+        synchronized (this) {
+            mLatestIndex = change.getIndex();
+        }
+
+        mTaskManager.runTask(TaskManager.MAIN, new PublishIndexTask(change, complete), 0);
+    }
+
+    private class PublishIndexTask implements Runnable {
+
+        private GalleryIndexChange mChange;
+        private boolean mComplete;
+
+        private PublishIndexTask(GalleryIndexChange change, boolean complete) {
+            mChange = change;
+            mComplete = complete;
+        }
+
+        @Override
+        public void run() {
+            List<OnIndexChangedListener> listeners;
+
+            synchronized (GalleryAccess.this) {
+                mIndex = mChange.getIndex();
+
+                if (mComplete) {
+                    mPreparing = false;
+                    mPrepared = true;
+                }
+
+                listeners = new ArrayList<>(mOnIndexChangedListeners);
+            }
+
+            for (OnIndexChangedListener listener: listeners) {
+                listener.onIndexChanged(GalleryAccess.this, mChange);
+            }
+
+            // Pages of the scan are not built on. The complete index and updates are.
+            if (mComplete || !mChange.isAppendOnly()) {
+                pruneDecodedPlaceholders(mChange.getIndex());
+            }
+
+            if (mComplete) {
+                Metrics metrics = mMetrics;
+
+                if (metrics != null) {
+                    metrics.recordPrepared(GalleryAccess.this, SystemClock.uptimeMillis() - mPrepareStartTime,
+                            mChange.getIndex().getImageCount());
+                }
+
+                synchronized (GalleryAccess.this) {
+                    // Not for an instance that was released while it was preparing.
+                    if (!mObservingChanges && mInstance == GalleryAccess.this) {
+                        mObservingChanges = true;
+
+                        mContext.getContentResolver().registerContentObserver(
+                                MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, mContentObserver);
+                    }
+                }
+
+                mNotifyPreparedTask.run();
+
+                startDecodeWorkers();
+            }
+        }
+
+    }
+
+    private Runnable mNotifyPreparedTask = new Runnable() {
+
+        @Override
+        public void run() {
+            List<OnPreparedListener> listeners;
+
+            synchronized (GalleryAccess.this) {
+                listeners = new ArrayList<>(mOnPreparedListeners);
+            }
+
+            for (OnPreparedListener listener: listeners) {
+                listener.onGalleryAccessPrepared(GalleryAccess.this);
+            }
+        }
+
+    };
+
+    private static int getSource(ThumbnailLoader thumbnailLoader) {
+        if (thumbnailLoader instanceof StreamThumbnailLoader) {
+            return Metrics.SOURCE_STREAM;
+        }
+
+        if (thumbnailLoader instanceof MediaStoreThumbnailLoader) {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q ? Metrics.SOURCE_LOAD_THUMBNAIL : Metrics.SOURCE_MINI_THUMBNAIL;
+        }
+
+        return Metrics.SOURCE_CUSTOM_LOADER;
+    }
+
+    /**
+     * @return null if the thumbnail can not have a micro thumbnail.
+     */
+    private Bitmap createMicroThumbnail(Bitmap thumbnail) {
+        int shortSide = Math.min(thumbnail.getWidth(), thumbnail.getHeight());
+
+        if (shortSide <= MICRO_THUMBNAIL_SIZE) {
+            return null;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && thumbnail.getConfig() == Bitmap.Config.HARDWARE) {
+            // Can not be drawn on a software canvas.
+            return null;
+        }
+
+        int width = Math.max(1, thumbnail.getWidth() * MICRO_THUMBNAIL_SIZE / shortSide);
+        int height = Math.max(1, thumbnail.getHeight() * MICRO_THUMBNAIL_SIZE / shortSide);
+
+        Bitmap.Config config = thumbnail.getConfig() == Bitmap.Config.RGB_565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+
+        Bitmap microThumbnail = mMicroBitmapPool.get(width, height, config);
+
+        if (microThumbnail == null) {
+            microThumbnail = Bitmap.createBitmap(width, height, config);
+        }
+        else {
+            microThumbnail.eraseColor(Color.TRANSPARENT);
+        }
+
+        Canvas canvas = new Canvas(microThumbnail);
+        canvas.drawBitmap(thumbnail, null, new Rect(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
+
+        return microThumbnail;
+    }
+
+    // Its state is guarded by mRequestLock.
+    private class GetThumbnailTask implements Runnable {
+
+        private long mImageId;
+        private Uri mUri;
+
+        private List<ReceiverReference> mReceivers = new ArrayList<>(2);
+
+        private Drawable mPlaceholder = null;
+        private Drawable mResult = null;
+
+        private boolean mPrefetch = false;
+        private boolean mPrewarm = false;
+        private boolean mStarted = false;
+        private boolean mCancelled = false;
+
+        private GetThumbnailTask(long imageId) {
+            mImageId = imageId;
+            mUri = getImageUriForId(imageId);
+        }
+
+        private ThumbnailRequest addReceiver(OnThumbnailReadyReceiver receiver) {
+            if (mResult != null) {
+                DeliverThumbnailTask deliverTask = new DeliverThumbnailTask(mUri, mResult, receiver);
+
+                mDelivery.post(deliverTask);
+
+                return deliverTask;
+            }
+
+            ReceiverReference reference = new ReceiverReference(this, receiver);
+
+            mReceivers.add(reference);
+
+            return reference;
+        }
+
+        /**
+         * @return false if the receiver was not waiting anymore.
+         */
+        private boolean removeReceiver(ReceiverReference reference) {
+            boolean removed = mReceivers.remove(reference);
+
+            cancelIfUnused();
+
+            return removed;
+        }
+
+        private boolean hasReceivers() {
+            for (int i = mReceivers.size() - 1; i >= 0; i--) {
+                if (mReceivers.get(i).get() == null) {
+                    mReceivers.remove(i);
+                }
+            }
+
+            return !mReceivers.isEmpty();
+        }
+
+        private void cancelIfUnused() {
+            if (mStarted || mCancelled || mPrefetch || mPrewarm || hasReceivers()) {
+                return;
+            }
+
+            mCancelled = true;
+
+            mThumbnailTasks.remove(mImageId, this);
+
+            Metrics metrics = mMetrics;
+
+            if (metrics != null) {
+                metrics.recordDroppedTask();
+            }
+        }
+
+        @Override
+        public void run() {
+            Metrics metrics = mMetrics;
+
+            long startTime = metrics == null ? 0 : SystemClock.uptimeMillis();
+
+            long imageId = mImageId;
+
+            GalleryIndex index = mIndex;
+
+            int position = index.getImagePosition(imageId);
+
+            long dateModified = position == -1 ? -1 : index.getDateModifiedAt(position);
+            int orientation = position == -1 ? 0 : index.getOrientationAt(position);
+            boolean hasPlaceholder = position == -1 || withDecodedPlaceholder(index.getPlaceholderAt(position), imageId) != 0;
+
+            ThumbnailLoader thumbnailLoader = mThumbnailLoader;
+            Bitmap.Config opaqueConfig = mOpaqueThumbnailConfig;
+
+            boolean hasMicroThumbnail = mMicroCache.contains(imageId);
+
+            if (!hasMicroThumbnail && dateModified != -1) {
+                Bitmap microThumbnail = mMicroDiskCache.get(imageId, dateModified, opaqueConfig, mMicroBitmapPool);
+
+                if (microThumbnail != null) {
+                    hasMicroThumbnail = true;
+
+                    Drawable placeholder = mMicroCache.put(imageId, microThumbnail);
+
+                    synchronized (mRequestLock) {
+                        mPlaceholder = placeholder;
+                    }
+
+                    mDelivery.post(mNotifyPlaceholderTask);
+                }
+            }
+
+            Bitmap bitmap = null;
+
+            if (dateModified != -1) {
+                bitmap = mDiskCache.get(imageId, dateModified, opaqueConfig, mBitmapPool);
+            }
+
+            boolean fromDisk = bitmap != null;
+
+            if (bitmap == null) {
+                bitmap = thumbnailLoader.loadThumbnail(mUri, orientation, mThumbnailSize, opaqueConfig, mBitmapPool);
+            }
+
+            if (bitmap == null) {
+                mThumbnailTasks.remove(mImageId, this);
+
+                return;
+            }
+
+            if (metrics != null) {
+                int source = fromDisk ? Metrics.SOURCE_DISK_CACHE : getSource(thumbnailLoader);
+
+                metrics.recordThumbnailLoaded(GalleryAccess.this, source, SystemClock.uptimeMillis() - startTime);
+            }
+
+            if (!hasPlaceholder) {
+                int placeholder = computePlaceholder(bitmap);
+
+                if (placeholder != 0) {
+                    setPlaceholder(imageId, placeholder);
+                }
+            }
+
+            Drawable result = mBitmapCache.put(imageId, bitmap);
+
+            synchronized (mRequestLock) {
+                mResult = result;
+            }
+
+            mDelivery.post(mNotifyResultTask);
+
+            if (!fromDisk && dateModified != -1) {
+                mDiskCache.put(imageId, dateModified, bitmap);
+            }
+
+            if (!hasMicroThumbnail) {
+                Bitmap microThumbnail = createMicroThumbnail(bitmap);
+
+                if (microThumbnail != null) {
+                    mMicroCache.put(imageId, microThumbnail);
+
+                    if (dateModified != -1) {
+                        mMicroDiskCache.put(imageId, dateModified, microThumbnail);
+                    }
+                }
+            }
+        }
+
+        // Receivers are copied under the lock and called after it is released. A receiver that is
+        // cancelled in between is cleared by its reference so it is skipped.
+
+        private Runnable mNotifyPlaceholderTask = new Runnable() {
+
+            @Override
+            public void run() {
+                List<ReceiverReference> receivers;
+                Drawable placeholder;
+
+                synchronized (mRequestLock) {
+                    if (mResult != null) {
+                        return;
+                    }
+
+                    receivers = new ArrayList<>(mReceivers);
+                    placeholder = mPlaceholder;
+                }
+
+                for (ReceiverReference reference: receivers) {
+                    OnThumbnailReadyReceiver receiver = reference.get();
+
+                    if (receiver instanceof OnPlaceholderReadyReceiver) {
+                        ((OnPlaceholderReadyReceiver) receiver).onPlaceholderReady(mUri, placeholder);
+                    }
+                }
+            }
+
+        };
+
+        private Runnable mNotifyResultTask = new Runnable() {
+
+            @Override
+            public void run() {
+                List<ReceiverReference> receivers;
+                Drawable result;
+
+                synchronized (mRequestLock) {
+                    receivers = new ArrayList<>(mReceivers);
+                    result = mResult;
 
                     mReceivers.clear();
 
-                    for (WeakReference<OnThumbnailReadyReceiver> reference: receivers) {
-                        OnThumbnailReadyReceiver receiver = reference.get();
+                    mThumbnailTasks.remove(mImageId, GetThumbnailTask.this);
+                }
+
+                for (ReceiverReference reference: receivers) {
+                    OnThumbnailReadyReceiver receiver = reference.get();
 
-                        if (receiver != null) {
-                            receiver.onThumbnailReady(mUri, mResult);
+                    if (receiver != null) {
+                        receiver.onThumbnailReady(mUri, result);
+
+                        Metrics metrics = mMetrics;
+
+                        if (metrics != null) {
+                            metrics.recordFirstThumbnail(GalleryAccess.this, SystemClock.uptimeMillis() - mPrepareStartTime);
                         }
                     }
-
-                    mThumbnailTasks.remove(mUri);
                 }
             }
 
@@ -491,4 +1999,127 @@ public class GalleryAccess {
 
     }
 
+    private class PrewarmTask implements OnIndexChangedListener, PrewarmRequest {
+
+        private long[] mImageIds;
+        private int mImageCount = 0;
+
+        private boolean mCancelled = false;
+
+        private PrewarmTask(int thumbnailCount) {
+            mImageIds = new long[Math.max(0, thumbnailCount)];
+        }
+
+        @Override
+        public void onIndexChanged(GalleryAccess galleryAccess, GalleryIndexChange change) {
+            prefetch(change.getIndex());
+
+            if (isPrepared()) {
+                unregisterOnIndexChangedListener(this);
+            }
+        }
+
+        // Guarded by the task itself, never by GalleryAccess, since prefetching takes the request lock.
+        synchronized private void prefetch(GalleryIndex index) {
+            if (mCancelled) {
+                return;
+            }
+
+            int count = Math.min(mImageIds.length, index.getImageCount());
+
+            for (int position = 0; position < count; position++) {
+                long imageId = index.getImageId(position);
+
+                // Once full, images that moved into the first ones after changes are not loaded.
+                if (mImageCount < mImageIds.length && !contains(imageId)) {
+                    mImageIds[mImageCount++] = imageId;
+
+                    prewarmThumbnail(imageId);
+                }
+            }
+        }
+
+        private boolean contains(long imageId) {
+            for (int i = 0; i < mImageCount; i++) {
+                if (mImageIds[i] == imageId) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+
+                mCancelled = true;
+
+                for (int i = 0; i < mImageCount; i++) {
+                    cancelPrewarm(mImageIds[i]);
+                }
+            }
+
+            unregisterOnIndexChangedListener(this);
+        }
+
+    }
+
+    private class ReceiverReference extends WeakReference<OnThumbnailReadyReceiver> implements ThumbnailRequest {
+
+        private GetThumbnailTask mTask;
+
+        private ReceiverReference(GetThumbnailTask task, OnThumbnailReadyReceiver receiver) {
+            super(receiver);
+
+            mTask = task;
+        }
+
+        @Override
+        public void cancel() {
+            // Also stops a delivery that has already taken the receiver from the task.
+            clear();
+
+            synchronized (mRequestLock) {
+                Metrics metrics = mMetrics;
+
+                if (mTask.removeReceiver(this) && metrics != null) {
+                    metrics.recordCancelledRequest();
+                }
+            }
+        }
+
+    }
+
+    private static class DeliverThumbnailTask implements Runnable, ThumbnailRequest {
+
+        private Uri mUri;
+        private Drawable mThumbnail;
+        private OnThumbnailReadyReceiver mReceiver;
+
+        private volatile boolean mCancelled = false;
+
+        private DeliverThumbnailTask(Uri uri, Drawable thumbnail, OnThumbnailReadyReceiver receiver) {
+            mUri = uri;
+            mThumbnail = thumbnail;
+            mReceiver = receiver;
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        @Override
+        public void run() {
+            if (!mCancelled) {
+                mReceiver.onThumbnailReady(mUri, mThumbnail);
+            }
+        }
+
+    }
+
 }
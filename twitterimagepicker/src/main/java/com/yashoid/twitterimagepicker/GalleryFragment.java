@@ -1,8 +1,11 @@
 package com.yashoid.twitterimagepicker;
 
+import android.content.ContentUris;
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.ColorFilter;
+import android.graphics.Paint;
 import android.graphics.PixelFormat;
 import android.graphics.Rect;
 import android.graphics.drawable.ColorDrawable;
@@ -11,7 +14,11 @@ import android.graphics.drawable.TransitionDrawable;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
@@ -21,18 +28,28 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.content.res.AppCompatResources;
 import androidx.appcompat.widget.AppCompatImageView;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
 import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public class GalleryFragment extends Fragment {
 
     private static final int CHECK_FADE_DURATION = 200;
 
+    private static final int PLACEHOLDER_BANDS = 16;
+
+    private static final int SPAN_COUNT = 3;
+
+    // Rebinds only the check mark of a cell.
+    private static final Object PAYLOAD_SELECTION = new Object();
+
+    // RecyclerView reorders every move against the other updates. Past this rebinding is cheaper.
+    private static final int MAX_DIFF_MOVES = 256;
+
     public static final int SELECTION_MODE_SINGLE_IMMEDIATE = 0;
     public static final int SELECTION_MODE_SINGLE_WAIT = 1;
     public static final int SELECTION_MODE_MULTIPLE_LONG_PRESS = 2;
@@ -44,20 +61,32 @@ public class GalleryFragment extends Fragment {
         return new GalleryFragment();
     }
 
+    public interface OnSelectionChangedListener {
+
+        void onSelectionChanged(GalleryFragment fragment);
+
+    }
+
     private GalleryAccess mGalleryAccess;
 
     private RecyclerView mListThumbnails;
 
     private ThumbnailAdapter mAdapter;
 
+    private ThumbnailPrefetcher mPrefetcher;
+
     private int mImageBucketIndex = -1;
 
     private int mSelectionMode = SELECTION_MODE_MULTIPLE_LONG_PRESS;
+
+    private int mCellSpacing;
     private int mMultiSelectMaxCount = DEFAULT_MULTI_SELECT_MAX_COUNT;
 
-    private List<Uri> mSelectedImages = new ArrayList<>(DEFAULT_MULTI_SELECT_MAX_COUNT);
+    private SelectionStore mSelection = new SelectionStore(DEFAULT_MULTI_SELECT_MAX_COUNT);
+
+    private DragSelection mDragSelection = new DragSelection();
 
-    private Map<Uri, SquareImageViewHolder> mUriHolders = new HashMap<>(21);
+    private OnSelectionChangedListener mOnSelectionChangedListener = null;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
@@ -67,6 +96,8 @@ public class GalleryFragment extends Fragment {
 
         mAdapter = new ThumbnailAdapter();
         mAdapter.setImageBucketIndex(mImageBucketIndex);
+
+        mPrefetcher = new ThumbnailPrefetcher(mGalleryAccess, mAdapter);
     }
 
     @Nullable
@@ -83,8 +114,11 @@ public class GalleryFragment extends Fragment {
 
         mListThumbnails = (RecyclerView) view;
 
+        // The item padding on both sides of a gap.
+        mCellSpacing = 2 * getResources().getDimensionPixelSize(R.dimen.twitterimagepicker_itemPadding);
+
         mListThumbnails.setAdapter(mAdapter);
-        mListThumbnails.setLayoutManager(new GridLayoutManager(getContext(), 3) {
+        mListThumbnails.setLayoutManager(new GridLayoutManager(getContext(), SPAN_COUNT) {
 
             @Override
             public SpanSizeLookup getSpanSizeLookup() {
@@ -99,6 +133,28 @@ public class GalleryFragment extends Fragment {
             }
 
         });
+
+        mListThumbnails.addOnScrollListener(mPrefetcher);
+        mListThumbnails.addOnItemTouchListener(mDragSelection);
+        mListThumbnails.addItemDecoration(mCellOffsets);
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+
+        mListThumbnails.removeOnScrollListener(mPrefetcher);
+        mListThumbnails.removeOnItemTouchListener(mDragSelection);
+        mListThumbnails.removeItemDecoration(mCellOffsets);
+
+        mPrefetcher.reset();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        mAdapter.release();
     }
 
     public void setImageBucketIndex(int index) {
@@ -109,6 +165,40 @@ public class GalleryFragment extends Fragment {
         }
     }
 
+    /**
+     * Loads the thumbnails of the first screen of the bucket ahead of time at low priority so that
+     * switching to it shows a full grid.
+     * @param bucketIndex -1 for the whole gallery.
+     */
+    public void prefetchBucket(int bucketIndex) {
+        int imageCount = bucketIndex == -1 ? mGalleryAccess.getImageCount() : mGalleryAccess.getImageCount(bucketIndex);
+
+        int count = Math.min(getScreenImageCount(), imageCount);
+
+        for (int position = 0; position < count; position++) {
+            long imageId = bucketIndex == -1 ? mGalleryAccess.getImageId(position) : mGalleryAccess.getImageId(bucketIndex, position);
+
+            mGalleryAccess.prefetchThumbnail(imageId);
+        }
+    }
+
+    private int getScreenImageCount() {
+        int width = mListThumbnails == null ? 0 : mListThumbnails.getWidth();
+        int height = mListThumbnails == null ? 0 : mListThumbnails.getHeight();
+
+        if (width == 0 || height == 0) {
+            DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
+
+            width = displayMetrics.widthPixels;
+            height = displayMetrics.heightPixels;
+        }
+
+        // Cells are square so a row is a column's width tall.
+        int rows = (height * SPAN_COUNT + width - 1) / width;
+
+        return rows * SPAN_COUNT;
+    }
+
     public void setSelectionMode(int selectionMode) {
         mSelectionMode = selectionMode;
     }
@@ -125,30 +215,244 @@ public class GalleryFragment extends Fragment {
         mMultiSelectMaxCount = count;
     }
 
+    public void setOnSelectionChangedListener(OnSelectionChangedListener listener) {
+        mOnSelectionChangedListener = listener;
+    }
+
+    /**
+     * @return The selected images in the order they were selected.
+     */
     public List<Uri> getSelectedImages() {
-        return mSelectedImages;
+        long[] imageIds = mSelection.toArray();
+
+        List<Uri> uris = new ArrayList<>(imageIds.length);
+
+        for (long imageId: imageIds) {
+            uris.add(GalleryAccess.getImageUriForId(imageId));
+        }
+
+        return uris;
+    }
+
+    /**
+     * @return The ids of the selected images in the order they were selected.
+     */
+    public long[] getSelectedImageIds() {
+        return mSelection.toArray();
+    }
+
+    public int getSelectedImageCount() {
+        return mSelection.size();
     }
 
+    /**
+     * Selects the images of the shown bucket, or of the whole gallery, in order until the multi
+     * select max count is reached. Does nothing in the single selection modes.
+     */
+    public void selectAllImages() {
+        if (!isSelectionModeMultiSelect()) {
+            return;
+        }
+
+        int count = mAdapter.getItemCount();
+
+        for (int position = 0; position < count && mSelection.size() < mMultiSelectMaxCount; position++) {
+            mSelection.add(mAdapter.getImageId(position));
+        }
+
+        notifySelectionChanged(0, count);
+        dispatchSelectionChanged();
+    }
+
+    public void clearSelection() {
+        uncheckAll();
+        dispatchSelectionChanged();
+    }
+
+    private void uncheckAll() {
+        mSelection.clear();
+
+        notifySelectionChanged(0, mAdapter.getItemCount());
+    }
+
+    private boolean isSelected(long imageId) {
+        return mSelection.contains(imageId);
+    }
+
+    /**
+     * Updates the check marks of the cells in the range that are bound. Others are checked when bound.
+     */
+    private void notifySelectionChanged(int start, int count) {
+        if (count > 0) {
+            mAdapter.notifyItemRangeChanged(start, count, PAYLOAD_SELECTION);
+        }
+    }
+
+    private void dispatchSelectionChanged() {
+        if (mOnSelectionChangedListener != null) {
+            mOnSelectionChangedListener.onSelectionChanged(this);
+        }
+    }
+
+    /**
+     * Puts the same space between every two cells with the outer columns and the first row against
+     * the edges. The horizontal space is split between the columns so that every cell ends up the
+     * same width, and so the same height.
+     */
+    private RecyclerView.ItemDecoration mCellOffsets = new RecyclerView.ItemDecoration() {
+
+        @Override
+        public void getItemOffsets(@NonNull Rect outRect, @NonNull View view, @NonNull RecyclerView parent, @NonNull RecyclerView.State state) {
+            int position = parent.getChildLayoutPosition(view);
+            int column = position % SPAN_COUNT;
+
+            outRect.set(column * mCellSpacing / SPAN_COUNT, position < SPAN_COUNT ? 0 : mCellSpacing,
+                    mCellSpacing - (column + 1) * mCellSpacing / SPAN_COUNT, 0);
+        }
+
+    };
+
     private class ThumbnailAdapter extends RecyclerView.Adapter<SquareImageViewHolder>
-            implements GalleryAccess.OnPreparedListener {
+            implements GalleryAccess.OnIndexChangedListener, ThumbnailPrefetcher.ImageSource {
 
         private int mBucketIndex = -1;
 
+        private int mItemCount;
+
+        private ListUpdateCallback mUpdateCallback = new AdapterListUpdateCallback(this);
+
+        // Increased on every bucket switch so that a diff that is out of date is dropped.
+        private int mDiffGeneration = 0;
+
+        private Handler mHandler = new Handler(Looper.getMainLooper());
+
         public ThumbnailAdapter() {
-            if (!mGalleryAccess.isPrepared()) {
-                mGalleryAccess.registerOnPreparedListener(this);
-            }
+            setHasStableIds(true);
+
+            mGalleryAccess.registerOnIndexChangedListener(this);
+
+            mItemCount = countItems(mBucketIndex);
+        }
+
+        public void release() {
+            mDiffGeneration++;
+
+            mGalleryAccess.unregisterOnIndexChangedListener(this);
         }
 
         @Override
-        public void onGalleryAccessPrepared(GalleryAccess galleryAccess) {
-            notifyDataSetChanged();
+        public void onIndexChanged(GalleryAccess galleryAccess, GalleryIndexChange change) {
+            mItemCount = countItems(mBucketIndex);
+
+            if (!change.isAppendOnly()) {
+                // Positions have moved and some images may be gone.
+                if (mPrefetcher != null) {
+                    mPrefetcher.reset();
+                }
+
+                if (!mSelection.isEmpty()) {
+                    boolean removed = false;
+
+                    for (long imageId: mSelection.toArray()) {
+                        if (!mGalleryAccess.containsImage(imageId)) {
+                            removed |= mSelection.remove(imageId);
+                        }
+                    }
+
+                    if (removed) {
+                        dispatchSelectionChanged();
+                    }
+                }
+            }
+
+            change.dispatchUpdatesTo(mBucketIndex, mUpdateCallback);
+        }
+
+        /**
+         * Keeps showing the current bucket while the difference to the new one is found in the
+         * background, then dispatches only that.
+         */
+        public void setImageBucketIndex(final int index) {
+            final int generation = ++mDiffGeneration;
+
+            if (index == mBucketIndex) {
+                return;
+            }
+
+            if (mItemCount == 0 || countItems(index) == 0) {
+                applyImageBucketIndex(index, null);
+                return;
+            }
+
+            final int previousIndex = mBucketIndex;
+            final GalleryIndex galleryIndex = mGalleryAccess.getIndex();
+
+            mGalleryAccess.executeInBackground(new Runnable() {
+
+                @Override
+                public void run() {
+                    final IdListDiff diff = IdListDiff.calculate(
+                            galleryIndex.getImageIds(previousIndex), galleryIndex.getImageIds(index));
+
+                    mHandler.post(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            if (generation != mDiffGeneration) {
+                                return;
+                            }
+
+                            if (galleryIndex.getVersion() != mGalleryAccess.getIndexVersion()) {
+                                // What is shown has been updated since. Start over from there.
+                                setImageBucketIndex(index);
+                                return;
+                            }
+
+                            applyImageBucketIndex(index, diff);
+                        }
+
+                    });
+                }
+
+            });
         }
 
-        public void setImageBucketIndex(int index) {
+        /**
+         * @param diff null if either the current or the new bucket is empty.
+         */
+        private void applyImageBucketIndex(int index, IdListDiff diff) {
+            int previousItemCount = mItemCount;
+
             mBucketIndex = index;
+            mItemCount = countItems(index);
+
+            if (mPrefetcher != null) {
+                mPrefetcher.reset();
+            }
 
-            notifyDataSetChanged();
+            if (diff == null) {
+                if (previousItemCount > 0) {
+                    mUpdateCallback.onRemoved(0, previousItemCount);
+                }
+
+                if (mItemCount > 0) {
+                    mUpdateCallback.onInserted(0, mItemCount);
+                }
+            }
+            else if (diff.getMovedCount() > MAX_DIFF_MOVES) {
+                notifyDataSetChanged();
+            }
+            else {
+                diff.dispatchUpdatesTo(mUpdateCallback);
+            }
+        }
+
+        private int countItems(int bucketIndex) {
+            if (bucketIndex == -1) {
+                return mGalleryAccess.getImageCount();
+            }
+
+            return bucketIndex < mGalleryAccess.getBucketCount() ? mGalleryAccess.getImageCount(bucketIndex) : 0;
         }
 
         @NonNull
@@ -158,26 +462,60 @@ public class GalleryFragment extends Fragment {
         }
 
         @Override
-        public void onBindViewHolder(@NonNull final SquareImageViewHolder holder, final int position) {
-            Uri imageUri;
+        public void onBindViewHolder(@NonNull SquareImageViewHolder holder, int position) {
+            holder.setImageId(getImageId(position));
+            holder.setPlaceholder(getImagePlaceholder(position));
+        }
 
-            if (mBucketIndex == -1) {
-                imageUri = mGalleryAccess.getImageUri(position);
+        @Override
+        public void onBindViewHolder(@NonNull SquareImageViewHolder holder, int position, @NonNull List<Object> payloads) {
+            for (Object payload: payloads) {
+                if (payload != PAYLOAD_SELECTION) {
+                    onBindViewHolder(holder, position);
+                    return;
+                }
+            }
+
+            if (payloads.isEmpty()) {
+                onBindViewHolder(holder, position);
             }
             else {
-                imageUri = mGalleryAccess.getImageUri(mBucketIndex, position);
+                holder.updateChecked();
             }
+        }
 
-            holder.setUri(imageUri);
+        @Override
+        public void onViewRecycled(@NonNull SquareImageViewHolder holder) {
+            holder.recycle();
         }
 
         @Override
-        public int getItemCount() {
-            if (!mGalleryAccess.isPrepared()) {
-                return 0;
+        public long getItemId(int position) {
+            return getImageId(position);
+        }
+
+        @Override
+        public long getImageId(int position) {
+            if (mBucketIndex == -1) {
+                return mGalleryAccess.getImageId(position);
+            }
+            else {
+                return mGalleryAccess.getImageId(mBucketIndex, position);
             }
+        }
 
-            return mBucketIndex == -1 ? mGalleryAccess.getImageCount() : mGalleryAccess.getImageCount(mBucketIndex);
+        private int getImagePlaceholder(int position) {
+            if (mBucketIndex == -1) {
+                return mGalleryAccess.getImagePlaceholder(position);
+            }
+            else {
+                return mGalleryAccess.getImagePlaceholder(mBucketIndex, position);
+            }
+        }
+
+        @Override
+        public int getItemCount() {
+            return mItemCount;
         }
 
     }
@@ -189,15 +527,21 @@ public class GalleryFragment extends Fragment {
         return new SquareImageViewHolder(view);
     }
 
+    /**
+     * Receives the thumbnails of the image it is bound to itself so binding does not create a
+     * receiver every time.
+     */
     public class SquareImageViewHolder extends RecyclerView.ViewHolder implements
-            View.OnClickListener, View.OnLongClickListener {
+            View.OnClickListener, View.OnLongClickListener, GalleryAccess.OnPlaceholderReadyReceiver {
 
-        private int mPadding;
+        private long mImageId = -1;
 
-        private Uri mUri;
+        private boolean mChecked = false;
 
         private ImageDrawable mImageDrawable;
 
+        private GalleryAccess.ThumbnailRequest mThumbnailRequest = null;
+
         private SquareImageViewHolder(@NonNull View itemView) {
             super(itemView);
 
@@ -206,141 +550,288 @@ public class GalleryFragment extends Fragment {
 
             itemView.setOnClickListener(this);
             itemView.setOnLongClickListener(this);
-
-            mPadding = itemView.getResources().getDimensionPixelSize(R.dimen.twitterimagepicker_itemPadding);
         }
 
-        public void setUri(Uri uri) {
-            mUri = uri;
+        public void setImageId(long imageId) {
+            cancelThumbnailRequest();
 
-            mUriHolders.put(mUri, this);
-
-            mImageDrawable.setImageDrawable(null);
-            mImageDrawable.setChecked(mSelectedImages.contains(mUri));
-
-            final int position = getAdapterPosition();
-
-            mGalleryAccess.getThumbnail(mUri, new GalleryAccess.OnThumbnailReadyReceiver() {
-
-                @Override
-                public void onThumbnailReady(Uri imageUri, Drawable thumbnail) {
-                    if (getAdapterPosition() != position) {
-                        return;
-                    }
+            mImageId = imageId;
 
-                    mImageDrawable.setImageDrawable(thumbnail);
-                }
+            mChecked = isSelected(imageId);
+            mImageDrawable.setChecked(mChecked);
 
-            });
+            Drawable thumbnail = mGalleryAccess.getCachedThumbnail(imageId);
 
-            if (position == 0) {
-                itemView.setPadding(0, 0, mPadding, mPadding);
+            if (thumbnail != null) {
+                mImageDrawable.setImageDrawable(thumbnail);
             }
-            else if (position == 1) {
-                itemView.setPadding(mPadding, 0, mPadding, mPadding);
+            else {
+                mImageDrawable.setImageDrawable(null);
+                mImageDrawable.setPlaceholderDrawable(mGalleryAccess.getPlaceholder(imageId));
+
+                mThumbnailRequest = mGalleryAccess.loadThumbnail(imageId, this);
             }
-            else if (position == 2) {
-                itemView.setPadding(mPadding, 0, 0, mPadding);
+        }
+
+        @Override
+        public void onPlaceholderReady(Uri imageUri, Drawable placeholder) {
+            if (ContentUris.parseId(imageUri) == mImageId) {
+                mImageDrawable.setPlaceholderDrawable(placeholder);
             }
-            else if (position % 3 == 0) {
-                itemView.setPadding(0, mPadding, mPadding, mPadding);
+        }
+
+        @Override
+        public void onThumbnailReady(Uri imageUri, Drawable thumbnail) {
+            if (ContentUris.parseId(imageUri) == mImageId) {
+                mImageDrawable.setImageDrawable(thumbnail);
             }
-            else if (position % 3 == 1) {
-                itemView.setPadding(mPadding, mPadding, mPadding, mPadding);
+        }
+
+        /**
+         * @param placeholder Packed colors from {@link GalleryAccess#getImagePlaceholder(int)}.
+         */
+        public void setPlaceholder(int placeholder) {
+            if (placeholder == 0) {
+                mImageDrawable.setPlaceholderColors(0, 0);
             }
             else {
-                itemView.setPadding(mPadding, mPadding, 0, mPadding);
+                mImageDrawable.setPlaceholderColors(GalleryAccess.getPlaceholderTopColor(placeholder),
+                        GalleryAccess.getPlaceholderBottomColor(placeholder));
+            }
+        }
+
+        /**
+         * Called when the holder is recycled. Stops loading its thumbnail and lets go of the image
+         * so it can be evicted from the cache.
+         */
+        public void recycle() {
+            cancelThumbnailRequest();
+
+            mImageDrawable.setImageDrawable(null);
+            mImageDrawable.setPlaceholderDrawable(null);
+        }
+
+        private void cancelThumbnailRequest() {
+            if (mThumbnailRequest != null) {
+                mThumbnailRequest.cancel();
+
+                mThumbnailRequest = null;
             }
         }
 
         public void check() {
+            mChecked = true;
             mImageDrawable.check();
         }
 
         public void uncheck() {
-            mImageDrawable.uncheck();;
+            mChecked = false;
+            mImageDrawable.uncheck();
+        }
+
+        /**
+         * Animates the check mark if the image was selected or unselected since it was bound.
+         */
+        public void updateChecked() {
+            boolean selected = isSelected(mImageId);
+
+            if (selected && !mChecked) {
+                check();
+            }
+            else if (!selected && mChecked) {
+                uncheck();
+            }
         }
 
         @Override
         public void onClick(View v) {
             switch (mSelectionMode) {
                 case SELECTION_MODE_SINGLE_IMMEDIATE:
-                    mSelectedImages.clear();
-                    mSelectedImages.add(mUri);
+                    mSelection.clear();
+                    mSelection.add(mImageId);
+
+                    dispatchSelectionChanged();
 
-                    ((TwitterImagePickerActivity) getActivity()).onSingleImageSelected(mUri);
+                    ((TwitterImagePickerActivity) getActivity()).onSingleImageSelected(GalleryAccess.getImageUriForId(mImageId));
                     return;
                 case SELECTION_MODE_SINGLE_WAIT:
-                    if (!mSelectedImages.contains(mUri) || mSelectedImages.size() > 1) {
-                        clearSelection();
-                        mSelectedImages.add(mUri);
+                    if (!isSelected(mImageId) || mSelection.size() > 1) {
+                        uncheckAll();
+                        mSelection.add(mImageId);
                         check();
                     }
-                    return;
+                    break;
                 case SELECTION_MODE_MULTIPLE_LONG_PRESS:
-                    if (mSelectedImages.size() > 1) {
-                        if (mSelectedImages.contains(mUri)) {
-                            mSelectedImages.remove(mUri);
-                            uncheck();
-                        }
-                        else if (mSelectedImages.size() < mMultiSelectMaxCount) {
-                            mSelectedImages.add(mUri);
-                            check();
-                        }
+                    if (mSelection.size() > 1) {
+                        toggle();
                     }
-                    else if (!mSelectedImages.contains(mUri)) {
-                        clearSelection();
-                        mSelectedImages.add(mUri);
+                    else if (!isSelected(mImageId)) {
+                        uncheckAll();
+                        mSelection.add(mImageId);
                         check();
                     }
                     else {
-                        mSelectedImages.clear();
+                        mSelection.remove(mImageId);
                         uncheck();
                     }
-                    return;
+                    break;
                 case SELECTION_MODE_MULTIPLE:
-                    if (mSelectedImages.contains(mUri)) {
-                        mSelectedImages.remove(mUri);
-                        uncheck();
-                    }
-                    else if (mSelectedImages.size() < mMultiSelectMaxCount) {
-                        mSelectedImages.add(mUri);
-                        check();
-                    }
-                    return;
+                    toggle();
+                    break;
             }
+
+            dispatchSelectionChanged();
         }
 
+        /**
+         * Toggles the image and starts a drag selection from it. Dragging over other images
+         * selects or unselects them the same way.
+         */
         @Override
         public boolean onLongClick(View v) {
-            if (mSelectionMode != SELECTION_MODE_MULTIPLE_LONG_PRESS) {
+            if (!isSelectionModeMultiSelect()) {
                 return false;
             }
 
-            if (mSelectedImages.contains(mUri)) {
-                mSelectedImages.remove(mUri);
+            toggle();
+
+            mDragSelection.start(getAdapterPosition(), isSelected(mImageId));
+
+            dispatchSelectionChanged();
+
+            return true;
+        }
+
+        private void toggle() {
+            if (isSelected(mImageId)) {
+                mSelection.remove(mImageId);
                 uncheck();
             }
-            else if (mSelectedImages.size() < mMultiSelectMaxCount) {
-                mSelectedImages.add(mUri);
+            else if (mSelection.size() < mMultiSelectMaxCount) {
+                mSelection.add(mImageId);
                 check();
             }
-
-            return true;
         }
 
     }
 
-    private void clearSelection() {
-        for (Uri uri: mSelectedImages) {
-            SquareImageViewHolder holder = mUriHolders.get(uri);
+    /**
+     * Selects or unselects the images from where a long press started to where the finger is.
+     * Images that leave the range while dragging go back to how they were.
+     */
+    private class DragSelection implements RecyclerView.OnItemTouchListener {
+
+        private int mAnchor = RecyclerView.NO_POSITION;
+        private int mEnd;
+
+        private boolean mSelecting;
 
-            if (holder != null && (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT || holder.itemView.isAttachedToWindow())) {
-                holder.uncheck();
+        // Images whose selection this drag has changed.
+        private SelectionStore mChanged = new SelectionStore(64);
+
+        void start(int position, boolean selecting) {
+            if (position == RecyclerView.NO_POSITION) {
+                return;
             }
+
+            mAnchor = position;
+            mEnd = position;
+            mSelecting = selecting;
+
+            mChanged.clear();
+        }
+
+        @Override
+        public boolean onInterceptTouchEvent(@NonNull RecyclerView recyclerView, @NonNull MotionEvent e) {
+            if (mAnchor == RecyclerView.NO_POSITION) {
+                return false;
+            }
+
+            int action = e.getActionMasked();
+
+            if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+                mAnchor = RecyclerView.NO_POSITION;
+                return false;
+            }
+
+            // Takes the gesture over from the cell so the list does not scroll.
+            return action == MotionEvent.ACTION_MOVE;
+        }
+
+        @Override
+        public void onTouchEvent(@NonNull RecyclerView recyclerView, @NonNull MotionEvent e) {
+            switch (e.getActionMasked()) {
+                case MotionEvent.ACTION_MOVE:
+                    View child = recyclerView.findChildViewUnder(e.getX(), e.getY());
+
+                    if (child != null) {
+                        int position = recyclerView.getChildAdapterPosition(child);
+
+                        if (position != RecyclerView.NO_POSITION) {
+                            moveTo(position);
+                        }
+                    }
+                    return;
+                case MotionEvent.ACTION_UP:
+                case MotionEvent.ACTION_CANCEL:
+                    mAnchor = RecyclerView.NO_POSITION;
+                    return;
+            }
+        }
+
+        @Override
+        public void onRequestDisallowInterceptTouchEvent(boolean disallowIntercept) { }
+
+        private void moveTo(int position) {
+            if (position == mEnd) {
+                return;
+            }
+
+            // Everything that changes lies between the previous end and the new one.
+            int start = Math.min(mEnd, position);
+            int end = Math.max(mEnd, position);
+
+            // Restored first so the images entering the range have room under the max count.
+            for (int i = start; i <= end; i++) {
+                if (isInRange(i, mEnd) && !isInRange(i, position)) {
+                    long imageId = mAdapter.getImageId(i);
+
+                    if (mChanged.remove(imageId)) {
+                        if (mSelecting) {
+                            mSelection.remove(imageId);
+                        }
+                        else {
+                            mSelection.add(imageId);
+                        }
+                    }
+                }
+            }
+
+            for (int i = start; i <= end; i++) {
+                if (!isInRange(i, mEnd) && isInRange(i, position)) {
+                    long imageId = mAdapter.getImageId(i);
+
+                    if (mSelecting) {
+                        if (mSelection.size() < mMultiSelectMaxCount && mSelection.add(imageId)) {
+                            mChanged.add(imageId);
+                        }
+                    }
+                    else if (mSelection.remove(imageId)) {
+                        mChanged.add(imageId);
+                    }
+                }
+            }
+
+            mEnd = position;
+
+            notifySelectionChanged(start, end - start + 1);
+            dispatchSelectionChanged();
+        }
+
+        private boolean isInRange(int position, int end) {
+            return position >= Math.min(mAnchor, end) && position <= Math.max(mAnchor, end);
         }
 
-        mSelectedImages.clear();
     }
 
     public static class SquareImageView extends AppCompatImageView {
@@ -364,9 +855,14 @@ public class GalleryFragment extends Fragment {
         private Context mContext;
 
         private Drawable mImageDrawable = null;
+        private Drawable mPlaceholderDrawable = null;
         private Drawable mCheckDrawable = null;
         private TransitionDrawable mCheckTransitionDrawable = null;
 
+        private int mPlaceholderTopColor = 0;
+        private int mPlaceholderBottomColor = 0;
+        private Paint mPlaceholderPaint = new Paint();
+
         private boolean mChecking = false;
 
         private Rect mHelperBounds = new Rect();
@@ -385,12 +881,45 @@ public class GalleryFragment extends Fragment {
             if (mImageDrawable != null) {
                 mImageDrawable.setCallback(this);
 
-                setImageBounds();
+                setImageBounds(mImageDrawable);
+
+                // Not needed anymore.
+                setPlaceholderDrawable(null);
             }
 
             invalidateSelf();
         }
 
+        /**
+         * Drawn scaled up until the image is set.
+         */
+        public void setPlaceholderDrawable(Drawable drawable) {
+            if (mPlaceholderDrawable != null) {
+                mPlaceholderDrawable.setCallback(null);
+            }
+
+            mPlaceholderDrawable = drawable;
+
+            if (mPlaceholderDrawable != null) {
+                mPlaceholderDrawable.setCallback(this);
+
+                setImageBounds(mPlaceholderDrawable);
+            }
+
+            invalidateSelf();
+        }
+
+        /**
+         * Painted as a vertical gradient when there is neither an image nor a placeholder drawable.
+         * Both 0 for none.
+         */
+        public void setPlaceholderColors(int topColor, int bottomColor) {
+            mPlaceholderTopColor = topColor;
+            mPlaceholderBottomColor = bottomColor;
+
+            invalidateSelf();
+        }
+
         public void setChecked(boolean checked) {
             if (mCheckTransitionDrawable != null) {
                 mCheckTransitionDrawable.setCallback(null);
@@ -502,7 +1031,11 @@ public class GalleryFragment extends Fragment {
             super.onBoundsChange(bounds);
 
             if (mImageDrawable != null) {
-                setImageBounds();
+                setImageBounds(mImageDrawable);
+            }
+
+            if (mPlaceholderDrawable != null) {
+                setImageBounds(mPlaceholderDrawable);
             }
 
             if (mCheckDrawable != null) {
@@ -514,11 +1047,11 @@ public class GalleryFragment extends Fragment {
             }
         }
 
-        private void setImageBounds() {
+        private void setImageBounds(Drawable drawable) {
             int size = getBounds().width();
 
-            int imageWidth = mImageDrawable.getIntrinsicWidth();
-            int imageHeight = mImageDrawable.getIntrinsicHeight();
+            int imageWidth = drawable.getIntrinsicWidth();
+            int imageHeight = drawable.getIntrinsicHeight();
 
             if (imageWidth > imageHeight) {
                 imageWidth = imageWidth * size / imageHeight;
@@ -532,7 +1065,7 @@ public class GalleryFragment extends Fragment {
             mHelperBounds.set(0, 0, imageWidth, imageHeight);
             mHelperBounds.offset((size - imageWidth) / 2, (size - imageHeight) / 2);
 
-            mImageDrawable.setBounds(mHelperBounds);
+            drawable.setBounds(mHelperBounds);
         }
 
         @Override
@@ -540,6 +1073,12 @@ public class GalleryFragment extends Fragment {
             if (mImageDrawable != null) {
                 mImageDrawable.draw(canvas);
             }
+            else if (mPlaceholderDrawable != null) {
+                mPlaceholderDrawable.draw(canvas);
+            }
+            else if (mPlaceholderTopColor != 0 || mPlaceholderBottomColor != 0) {
+                drawPlaceholderColors(canvas);
+            }
 
             if (mCheckDrawable != null) {
                 mCheckDrawable.draw(canvas);
@@ -550,6 +1089,31 @@ public class GalleryFragment extends Fragment {
             }
         }
 
+        private void drawPlaceholderColors(Canvas canvas) {
+            Rect bounds = getBounds();
+
+            // Bands instead of a shader so nothing is allocated per image.
+            for (int band = 0; band < PLACEHOLDER_BANDS; band++) {
+                float fraction = band / (float) (PLACEHOLDER_BANDS - 1);
+
+                mPlaceholderPaint.setColor(blend(mPlaceholderTopColor, mPlaceholderBottomColor, fraction));
+
+                canvas.drawRect(
+                        bounds.left,
+                        bounds.top + bounds.height() * band / PLACEHOLDER_BANDS,
+                        bounds.right,
+                        bounds.top + bounds.height() * (band + 1) / PLACEHOLDER_BANDS,
+                        mPlaceholderPaint);
+            }
+        }
+
+        private static int blend(int from, int to, float fraction) {
+            return Color.rgb(
+                    (int) (Color.red(from) + (Color.red(to) - Color.red(from)) * fraction),
+                    (int) (Color.green(from) + (Color.green(to) - Color.green(from)) * fraction),
+                    (int) (Color.blue(from) + (Color.blue(to) - Color.blue(from)) * fraction));
+        }
+
         @Override
         public void setAlpha(int alpha) { }
 
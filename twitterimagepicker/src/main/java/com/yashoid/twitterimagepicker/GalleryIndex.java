@@ -0,0 +1,366 @@
+package com.yashoid.twitterimagepicker;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Snapshot of the gallery's images and buckets. Never modified after it is built so it can be
+ * handed to the main thread while the scan keeps adding rows to its {@link Builder}.
+ *
+ * Bucket membership is stored in compressed sparse row form: the positions of the images of bucket
+ * b are mBucketImages[mBucketOffsets[b]] to mBucketImages[mBucketOffsets[b + 1] - 1].
+ */
+class GalleryIndex {
+
+    private static AtomicLong mLastVersion = new AtomicLong(0);
+
+    static final GalleryIndex EMPTY = new Builder(0, false).build();
+
+    // Increases with every index built in the process. A newer index always has a larger version.
+    private long mVersion;
+
+    private long[] mImageIds;
+    private long[] mImageDates;
+    private short[] mImageOrientations;
+    private int[] mImageBuckets;
+    private int mImageCount;
+
+    // Placeholders known when the index was built. Ones decoded later are kept by GalleryAccess.
+    private int[] mImagePlaceholders;
+
+    private long mMaxImageId;
+
+    private LongIntHashMap mImagePositions;
+
+    private boolean mHasBuckets;
+
+    private long[] mBucketIds;
+    private String[] mBucketNames;
+    private int mBucketCount;
+
+    private LongIntHashMap mBucketIndices;
+
+    private int[] mBucketOffsets;
+    private int[] mBucketImages;
+
+    private GalleryIndex(long[] imageIds, long[] imageDates, short[] imageOrientations, int[] imagePlaceholders,
+                         int[] imageBuckets, int imageCount, long maxImageId,
+                         LongIntHashMap imagePositions, boolean hasBuckets, long[] bucketIds, String[] bucketNames,
+                         int bucketCount, LongIntHashMap bucketIndices, int[] bucketOffsets, int[] bucketImages) {
+        mImageIds = imageIds;
+        mImageDates = imageDates;
+        mImageOrientations = imageOrientations;
+        mImagePlaceholders = imagePlaceholders;
+        mImageBuckets = imageBuckets;
+        mImageCount = imageCount;
+        mMaxImageId = maxImageId;
+        mImagePositions = imagePositions;
+        mHasBuckets = hasBuckets;
+        mBucketIds = bucketIds;
+        mBucketNames = bucketNames;
+        mBucketCount = bucketCount;
+        mBucketIndices = bucketIndices;
+        mBucketOffsets = bucketOffsets;
+        mBucketImages = bucketImages;
+
+        mVersion = mLastVersion.incrementAndGet();
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public int getImageCount() {
+        return mImageCount;
+    }
+
+    public long getImageId(int position) {
+        return mImageIds[position];
+    }
+
+    public long getDateModifiedAt(int position) {
+        return mImageDates[position];
+    }
+
+    /**
+     * @return Clockwise rotation of the image in degrees.
+     */
+    public int getOrientationAt(int position) {
+        return mImageOrientations[position];
+    }
+
+    /**
+     * @return The image's two packed RGB565 placeholder colors or 0 if it has none yet.
+     * @see GalleryAccess#getPlaceholderTopColor(int)
+     */
+    public int getPlaceholderAt(int position) {
+        return mImagePlaceholders[position];
+    }
+
+    public int getPlaceholderAt(int bucketIndex, int position) {
+        return mImagePlaceholders[mBucketImages[mBucketOffsets[bucketIndex] + position]];
+    }
+
+    /**
+     * @return 0 if the index is empty.
+     */
+    public long getMaxDateModified() {
+        // Images are sorted by DATE_MODIFIED descending.
+        return mImageCount == 0 ? 0 : mImageDates[0];
+    }
+
+    public long getMaxImageId() {
+        return mMaxImageId;
+    }
+
+    /**
+     * @return -1 if the image is not in the index.
+     */
+    public int getImagePosition(long imageId) {
+        return mImagePositions.get(imageId);
+    }
+
+    /**
+     * @return -1 if the image is not in the index.
+     */
+    public long getDateModified(long imageId) {
+        int position = mImagePositions.get(imageId);
+
+        return position == -1 ? -1 : mImageDates[position];
+    }
+
+    public boolean hasBuckets() {
+        return mHasBuckets;
+    }
+
+    public int getBucketCount() {
+        return mBucketCount;
+    }
+
+    public long getBucketId(int bucketIndex) {
+        return mBucketIds[bucketIndex];
+    }
+
+    /**
+     * @return -1 if there is no such bucket.
+     */
+    public int getBucketIndex(long bucketId) {
+        return mBucketIndices.get(bucketId);
+    }
+
+    public String getBucketName(int bucketIndex) {
+        return mBucketNames[bucketIndex];
+    }
+
+    public int getImageCount(int bucketIndex) {
+        return mBucketOffsets[bucketIndex + 1] - mBucketOffsets[bucketIndex];
+    }
+
+    public long getImageId(int bucketIndex, int position) {
+        return mImageIds[mBucketImages[mBucketOffsets[bucketIndex] + position]];
+    }
+
+    /**
+     * @param bucketIndex -1 for the whole gallery.
+     * @return A copy of the ids in the order of their positions. Empty if there is no such bucket.
+     */
+    public long[] getImageIds(int bucketIndex) {
+        if (bucketIndex == -1) {
+            return Arrays.copyOf(mImageIds, mImageCount);
+        }
+
+        if (bucketIndex >= mBucketCount) {
+            return new long[0];
+        }
+
+        int start = mBucketOffsets[bucketIndex];
+
+        long[] imageIds = new long[mBucketOffsets[bucketIndex + 1] - start];
+
+        for (int position = 0; position < imageIds.length; position++) {
+            imageIds[position] = mImageIds[mBucketImages[start + position]];
+        }
+
+        return imageIds;
+    }
+
+    /**
+     * @return The index of the bucket of the image at the given position or -1 if there are no buckets.
+     */
+    public int getImageBucket(int position) {
+        return mHasBuckets ? mImageBuckets[position] : -1;
+    }
+
+    /**
+     * @return The position within its bucket of the image at the given position in the whole gallery.
+     */
+    public int getBucketPosition(int bucketIndex, int position) {
+        int start = mBucketOffsets[bucketIndex];
+
+        // Each bucket's positions are in ascending order.
+        return Arrays.binarySearch(mBucketImages, start, mBucketOffsets[bucketIndex + 1], position) - start;
+    }
+
+    static class Builder {
+
+        private boolean mHasBuckets;
+
+        private long[] mImageIds;
+        private long[] mImageDates;
+        private short[] mImageOrientations;
+        private int[] mImagePlaceholders;
+        private int[] mImageBuckets;
+        private int mImageCount = 0;
+
+        private long mMaxImageId = 0;
+
+        private LongIntHashMap mImagePositions;
+
+        private long[] mBucketIds = new long[32];
+        private String[] mBucketNames = new String[32];
+        private int[] mBucketCounts = new int[32];
+        private int mBucketCount = 0;
+
+        private LongIntHashMap mBucketIndices = new LongIntHashMap(32, -1);
+
+        Builder(int expectedCount, boolean hasBuckets) {
+            mHasBuckets = hasBuckets;
+
+            mImageIds = new long[Math.max(16, expectedCount)];
+            mImageDates = new long[mImageIds.length];
+            mImageOrientations = new short[mImageIds.length];
+            mImagePlaceholders = new int[mImageIds.length];
+            mImageBuckets = new int[hasBuckets ? mImageIds.length : 0];
+            mImagePositions = new LongIntHashMap(expectedCount, -1);
+        }
+
+        public int getImageCount() {
+            return mImageCount;
+        }
+
+        public boolean hasBucket(long bucketId) {
+            return mBucketIndices.containsKey(bucketId);
+        }
+
+        /**
+         * @param placeholder 0 if not known yet.
+         * @param bucketId Ignored if the builder has no buckets.
+         * @param bucketName Only read the first time the bucket is seen.
+         */
+        public void addImage(long imageId, long dateModified, int orientation, int placeholder, long bucketId, String bucketName) {
+            if (mImageCount == mImageIds.length) {
+                int capacity = mImageCount * 2;
+
+                mImageIds = Arrays.copyOf(mImageIds, capacity);
+                mImageDates = Arrays.copyOf(mImageDates, capacity);
+                mImageOrientations = Arrays.copyOf(mImageOrientations, capacity);
+                mImagePlaceholders = Arrays.copyOf(mImagePlaceholders, capacity);
+
+                if (mHasBuckets) {
+                    mImageBuckets = Arrays.copyOf(mImageBuckets, capacity);
+                }
+            }
+
+            int index = mImageCount++;
+
+            mImageIds[index] = imageId;
+            mImageDates[index] = dateModified;
+            mImageOrientations[index] = (short) orientation;
+            mImagePlaceholders[index] = placeholder;
+            mImagePositions.put(imageId, index);
+
+            mMaxImageId = Math.max(mMaxImageId, imageId);
+
+            if (mHasBuckets) {
+                int bucketIndex = mBucketIndices.get(bucketId);
+
+                if (bucketIndex == -1) {
+                    bucketIndex = addBucket(bucketId, bucketName);
+                }
+
+                mImageBuckets[index] = bucketIndex;
+                mBucketCounts[bucketIndex]++;
+            }
+        }
+
+        /**
+         * Adds an empty bucket. Used to keep the bucket indices of a previous index.
+         */
+        public int addBucket(long bucketId, String bucketName) {
+            if (mBucketCount == mBucketIds.length) {
+                int capacity = mBucketCount * 2;
+
+                mBucketIds = Arrays.copyOf(mBucketIds, capacity);
+                mBucketNames = Arrays.copyOf(mBucketNames, capacity);
+                mBucketCounts = Arrays.copyOf(mBucketCounts, capacity);
+            }
+
+            int bucketIndex = mBucketCount++;
+
+            mBucketIds[bucketIndex] = bucketId;
+            mBucketNames[bucketIndex] = bucketName;
+            mBucketIndices.put(bucketId, bucketIndex);
+
+            return bucketIndex;
+        }
+
+        public GalleryIndex build() {
+            return build(null);
+        }
+
+        /**
+         * @param placeholders Placeholders decoded by image id since the rows were added, or null.
+         *                     They fill in the images that were added without one.
+         */
+        public GalleryIndex build(Map<Long, Integer> placeholders) {
+            int[] imagePlaceholders = Arrays.copyOf(mImagePlaceholders, mImageCount);
+
+            if (placeholders != null) {
+                for (Map.Entry<Long, Integer> entry: placeholders.entrySet()) {
+                    int position = mImagePositions.get(entry.getKey());
+
+                    if (position != -1 && imagePlaceholders[position] == 0) {
+                        imagePlaceholders[position] = entry.getValue();
+                    }
+                }
+            }
+
+            int[] bucketOffsets = new int[mBucketCount + 1];
+
+            for (int bucketIndex = 0; bucketIndex < mBucketCount; bucketIndex++) {
+                bucketOffsets[bucketIndex + 1] = bucketOffsets[bucketIndex] + mBucketCounts[bucketIndex];
+            }
+
+            int[] bucketImages = new int[mHasBuckets ? mImageCount : 0];
+
+            if (mHasBuckets) {
+                int[] fill = Arrays.copyOf(bucketOffsets, mBucketCount);
+
+                for (int index = 0; index < mImageCount; index++) {
+                    bucketImages[fill[mImageBuckets[index]]++] = index;
+                }
+            }
+
+            return new GalleryIndex(
+                    Arrays.copyOf(mImageIds, mImageCount),
+                    Arrays.copyOf(mImageDates, mImageCount),
+                    Arrays.copyOf(mImageOrientations, mImageCount),
+                    imagePlaceholders,
+                    Arrays.copyOf(mImageBuckets, mHasBuckets ? mImageCount : 0),
+                    mImageCount,
+                    mMaxImageId,
+                    new LongIntHashMap(mImagePositions),
+                    mHasBuckets,
+                    Arrays.copyOf(mBucketIds, mBucketCount),
+                    Arrays.copyOf(mBucketNames, mBucketCount),
+                    mBucketCount,
+                    new LongIntHashMap(mBucketIndices),
+                    bucketOffsets,
+                    bucketImages
+            );
+        }
+
+    }
+
+}
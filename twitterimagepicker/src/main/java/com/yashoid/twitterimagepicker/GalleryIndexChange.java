@@ -0,0 +1,176 @@
+package com.yashoid.twitterimagepicker;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+/**
+ * Describes how the gallery index changed from one version to the next. Handed to
+ * {@link GalleryAccess.OnIndexChangedListener} after the new version has become visible through
+ * {@link GalleryAccess}.
+ */
+public class GalleryIndexChange {
+
+    static GalleryIndexChange append(GalleryIndex previousIndex, GalleryIndex index) {
+        return new GalleryIndexChange(previousIndex, index, null, null);
+    }
+
+    /**
+     * @param removedPositions Ascending positions in the previous index that are not in the new one.
+     * @param insertedPositions Ascending positions in the new index that were not in the previous one.
+     */
+    static GalleryIndexChange delta(GalleryIndex previousIndex, GalleryIndex index,
+                                    int[] removedPositions, int[] insertedPositions) {
+        return new GalleryIndexChange(previousIndex, index, removedPositions, insertedPositions);
+    }
+
+    private GalleryIndex mPreviousIndex;
+    private GalleryIndex mIndex;
+
+    // Both null if images were only appended.
+    private int[] mRemovedPositions;
+    private int[] mInsertedPositions;
+
+    private GalleryIndexChange(GalleryIndex previousIndex, GalleryIndex index,
+                               int[] removedPositions, int[] insertedPositions) {
+        mPreviousIndex = previousIndex;
+        mIndex = index;
+        mRemovedPositions = removedPositions;
+        mInsertedPositions = insertedPositions;
+    }
+
+    GalleryIndex getPreviousIndex() {
+        return mPreviousIndex;
+    }
+
+    GalleryIndex getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * @return The version of the index after this change.
+     * @see GalleryAccess#getIndexVersion()
+     */
+    public long getVersion() {
+        return mIndex.getVersion();
+    }
+
+    /**
+     * @return true if images were only added after the existing ones, as happens while the gallery
+     * is being scanned.
+     */
+    public boolean isAppendOnly() {
+        return mRemovedPositions == null;
+    }
+
+    public int getPreviousBucketCount() {
+        return mPreviousIndex.getBucketCount();
+    }
+
+    public int getBucketCount() {
+        return mIndex.getBucketCount();
+    }
+
+    public int getRemovedImageCount() {
+        return mRemovedPositions == null ? 0 : mRemovedPositions.length;
+    }
+
+    public int getInsertedImageCount() {
+        if (mInsertedPositions == null) {
+            return mIndex.getImageCount() - mPreviousIndex.getImageCount();
+        }
+
+        return mInsertedPositions.length;
+    }
+
+    /**
+     * Reports the removed and inserted images of the whole gallery or of a single bucket in an order
+     * that is valid for RecyclerView: removals from the last position to the first in the previous
+     * positions, then insertions from the first to the last in the new positions.
+     * @param bucketIndex -1 for the whole gallery.
+     */
+    public void dispatchUpdatesTo(int bucketIndex, ListUpdateCallback callback) {
+        if (isAppendOnly()) {
+            int previousCount = getImageCount(mPreviousIndex, bucketIndex);
+            int count = getImageCount(mIndex, bucketIndex);
+
+            if (count > previousCount) {
+                callback.onInserted(previousCount, count - previousCount);
+            }
+            return;
+        }
+
+        int runStart = -1;
+        int runLength = 0;
+
+        for (int i = mRemovedPositions.length - 1; i >= 0; i--) {
+            int position = toBucketPosition(mPreviousIndex, bucketIndex, mRemovedPositions[i]);
+
+            if (position == -1) {
+                continue;
+            }
+
+            if (runLength > 0 && position == runStart - 1) {
+                runStart = position;
+                runLength++;
+                continue;
+            }
+
+            if (runLength > 0) {
+                callback.onRemoved(runStart, runLength);
+            }
+
+            runStart = position;
+            runLength = 1;
+        }
+
+        if (runLength > 0) {
+            callback.onRemoved(runStart, runLength);
+        }
+
+        runLength = 0;
+
+        for (int insertedPosition: mInsertedPositions) {
+            int position = toBucketPosition(mIndex, bucketIndex, insertedPosition);
+
+            if (position == -1) {
+                continue;
+            }
+
+            if (runLength > 0 && position == runStart + runLength) {
+                runLength++;
+                continue;
+            }
+
+            if (runLength > 0) {
+                callback.onInserted(runStart, runLength);
+            }
+
+            runStart = position;
+            runLength = 1;
+        }
+
+        if (runLength > 0) {
+            callback.onInserted(runStart, runLength);
+        }
+    }
+
+    private static int getImageCount(GalleryIndex index, int bucketIndex) {
+        if (bucketIndex == -1) {
+            return index.getImageCount();
+        }
+
+        return bucketIndex < index.getBucketCount() ? index.getImageCount(bucketIndex) : 0;
+    }
+
+    private static int toBucketPosition(GalleryIndex index, int bucketIndex, int position) {
+        if (bucketIndex == -1) {
+            return position;
+        }
+
+        if (bucketIndex >= index.getBucketCount() || index.getImageBucket(position) != bucketIndex) {
+            return -1;
+        }
+
+        return index.getBucketPosition(bucketIndex, position);
+    }
+
+}
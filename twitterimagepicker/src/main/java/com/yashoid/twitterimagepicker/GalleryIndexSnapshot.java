@@ -0,0 +1,272 @@
+package com.yashoid.twitterimagepicker;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Stores the gallery index in the app's cache directory so the picker can show the gallery before
+ * MediaStore has been queried on the next launch.
+ *
+ * The file is a header followed by the bucket table and then the image columns, each written as a
+ * single run so they can be read out of the memory mapped file in bulk.
+ */
+class GalleryIndexSnapshot {
+
+    private static final String TAG = "GalleryIndexSnapshot";
+
+    private static final String FILE = "twitterimagepicker_index";
+    private static final String FILE_TEMP = "twitterimagepicker_index.tmp";
+
+    private static final int MAGIC = 0x54494958;
+    private static final int VERSION = 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Context mContext;
+
+    GalleryIndexSnapshot(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Must not be called on the main thread.
+     * @return null if there is no valid snapshot.
+     */
+    public GalleryIndex read() {
+        File file = getFile(FILE);
+
+        if (file == null || !file.exists()) {
+            return null;
+        }
+
+        RandomAccessFile input = null;
+
+        try {
+            input = new RandomAccessFile(file, "r");
+
+            FileChannel channel = input.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            return read(buffer);
+        } catch (IOException | RuntimeException e) {
+            // Any inconsistency in the file is treated the same. A full scan replaces it.
+            Log.w(TAG, "Gallery index snapshot is corrupt. Deleting it.", e);
+
+            file.delete();
+            return null;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) { }
+            }
+        }
+    }
+
+    private static GalleryIndex read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Unexpected snapshot header.");
+        }
+
+        boolean hasBuckets = buffer.get() != 0;
+        int imageCount = buffer.getInt();
+        int bucketCount = buffer.getInt();
+
+        if (imageCount < 0 || bucketCount < 0) {
+            throw new IOException("Unexpected snapshot size.");
+        }
+
+        long imageBytes = imageCount * (8L + 8L + 2L + 4L + (hasBuckets ? 4L : 0L));
+
+        // Counts are checked against the file before anything is allocated for them. A bucket
+        // takes at least its id and the length of its name.
+        checkRemaining(buffer, bucketCount * 12L + imageBytes);
+
+        GalleryIndex.Builder builder = new GalleryIndex.Builder(imageCount, hasBuckets);
+
+        long[] bucketIds = new long[bucketCount];
+
+        buffer.asLongBuffer().get(bucketIds);
+        buffer.position(buffer.position() + bucketCount * 8);
+
+        for (int bucketIndex = 0; bucketIndex < bucketCount; bucketIndex++) {
+            int length = buffer.getInt();
+
+            if (length < -1) {
+                throw new IOException("Unexpected bucket name length " + length);
+            }
+
+            String bucketName = null;
+
+            if (length >= 0) {
+                checkRemaining(buffer, length);
+
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+
+                bucketName = new String(bytes, UTF_8);
+            }
+
+            builder.addBucket(bucketIds[bucketIndex], bucketName);
+        }
+
+        checkRemaining(buffer, imageBytes);
+
+        long[] imageIds = new long[imageCount];
+        long[] imageDates = new long[imageCount];
+        short[] imageOrientations = new short[imageCount];
+        int[] imagePlaceholders = new int[imageCount];
+        int[] imageBuckets = new int[hasBuckets ? imageCount : 0];
+
+        buffer.asLongBuffer().get(imageIds);
+        buffer.position(buffer.position() + imageCount * 8);
+
+        buffer.asLongBuffer().get(imageDates);
+        buffer.position(buffer.position() + imageCount * 8);
+
+        buffer.asShortBuffer().get(imageOrientations);
+        buffer.position(buffer.position() + imageCount * 2);
+
+        buffer.asIntBuffer().get(imagePlaceholders);
+        buffer.position(buffer.position() + imageCount * 4);
+
+        buffer.asIntBuffer().get(imageBuckets);
+
+        for (int index = 0; index < imageCount; index++) {
+            long bucketId = 0;
+
+            if (hasBuckets) {
+                int bucketIndex = imageBuckets[index];
+
+                if (bucketIndex < 0 || bucketIndex >= bucketCount) {
+                    throw new IOException("Unexpected bucket index " + bucketIndex);
+                }
+
+                bucketId = bucketIds[bucketIndex];
+            }
+
+            builder.addImage(imageIds[index], imageDates[index], imageOrientations[index], imagePlaceholders[index], bucketId, null);
+        }
+
+        return builder.build();
+    }
+
+    private static void checkRemaining(ByteBuffer buffer, long bytes) throws IOException {
+        if (bytes < 0 || bytes > buffer.remaining()) {
+            throw new IOException("Snapshot is truncated. Expected " + bytes + " more bytes, found " + buffer.remaining());
+        }
+    }
+
+    /**
+     * Must not be called on the main thread.
+     * @param placeholders Placeholders decoded since the index was built, by image id.
+     */
+    synchronized public void write(GalleryIndex index, Map<Long, Integer> placeholders) {
+        File temp = getFile(FILE_TEMP);
+
+        if (temp == null) {
+            return;
+        }
+
+        DataOutputStream output = null;
+
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+
+            int imageCount = index.getImageCount();
+            int bucketCount = index.getBucketCount();
+
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+
+            output.writeByte(index.hasBuckets() ? 1 : 0);
+            output.writeInt(imageCount);
+            output.writeInt(bucketCount);
+
+            for (int bucketIndex = 0; bucketIndex < bucketCount; bucketIndex++) {
+                output.writeLong(index.getBucketId(bucketIndex));
+            }
+
+            for (int bucketIndex = 0; bucketIndex < bucketCount; bucketIndex++) {
+                String bucketName = index.getBucketName(bucketIndex);
+
+                if (bucketName == null) {
+                    output.writeInt(-1);
+                    continue;
+                }
+
+                byte[] bytes = bucketName.getBytes(UTF_8);
+
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+
+            for (int position = 0; position < imageCount; position++) {
+                output.writeLong(index.getImageId(position));
+            }
+
+            for (int position = 0; position < imageCount; position++) {
+                output.writeLong(index.getDateModifiedAt(position));
+            }
+
+            for (int position = 0; position < imageCount; position++) {
+                output.writeShort(index.getOrientationAt(position));
+            }
+
+            for (int position = 0; position < imageCount; position++) {
+                int placeholder = index.getPlaceholderAt(position);
+
+                if (placeholder == 0 && !placeholders.isEmpty()) {
+                    Integer decoded = placeholders.get(index.getImageId(position));
+
+                    if (decoded != null) {
+                        placeholder = decoded;
+                    }
+                }
+
+                output.writeInt(placeholder);
+            }
+
+            if (index.hasBuckets()) {
+                for (int position = 0; position < imageCount; position++) {
+                    output.writeInt(index.getImageBucket(position));
+                }
+            }
+
+            output.close();
+            output = null;
+
+            if (!temp.renameTo(getFile(FILE))) {
+                throw new IOException("Failed to replace the snapshot.");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write gallery index snapshot.", e);
+
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException ce) { }
+            }
+
+            temp.delete();
+        }
+    }
+
+    private File getFile(String name) {
+        File cacheDir = mContext.getCacheDir();
+
+        return cacheDir == null ? null : new File(cacheDir, name);
+    }
+
+}
@@ -0,0 +1,330 @@
+package com.yashoid.twitterimagepicker;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.Arrays;
+
+/**
+ * The removals, moves and insertions that turn one list of unique ids into another. Unlike
+ * DiffUtil it matches items by id alone so it runs in O(n log n) and can diff a whole gallery
+ * against one of its buckets. Meant to be calculated off the main thread.
+ *
+ * The items that keep their relative order are the longest increasing run of their new positions.
+ * Only the rest of the items that are in both lists are moved.
+ */
+class IdListDiff {
+
+    /**
+     * @param oldIds Unique ids in the order they are shown.
+     * @param newIds Unique ids in the order they should be shown.
+     */
+    static IdListDiff calculate(long[] oldIds, long[] newIds) {
+        LongIntHashMap newPositions = new LongIntHashMap(newIds.length, -1);
+
+        for (int position = 0; position < newIds.length; position++) {
+            newPositions.put(newIds[position], position);
+        }
+
+        int[] removedPositions = new int[oldIds.length];
+        int removedCount = 0;
+
+        // New positions of the items that are in both lists, in their old order.
+        int[] keptNewPositions = new int[Math.min(oldIds.length, newIds.length)];
+        int keptCount = 0;
+
+        for (int position = 0; position < oldIds.length; position++) {
+            int newPosition = newPositions.get(oldIds[position]);
+
+            if (newPosition == -1) {
+                removedPositions[removedCount++] = position;
+            }
+            else {
+                keptNewPositions[keptCount++] = newPosition;
+            }
+        }
+
+        removedPositions = Arrays.copyOf(removedPositions, removedCount);
+        keptNewPositions = Arrays.copyOf(keptNewPositions, keptCount);
+
+        return new IdListDiff(newIds.length, removedPositions, keptNewPositions,
+                findIncreasingRun(keptNewPositions));
+    }
+
+    /**
+     * @return Which of the values are part of a longest strictly increasing subsequence.
+     */
+    private static boolean[] findIncreasingRun(int[] values) {
+        int count = values.length;
+
+        boolean[] inRun = new boolean[count];
+
+        if (count == 0) {
+            return inRun;
+        }
+
+        // Index of the value that ends the smallest tail of each run length, and each value's predecessor.
+        int[] tails = new int[count];
+        int[] previous = new int[count];
+        int length = 0;
+
+        for (int i = 0; i < count; i++) {
+            int low = 0;
+            int high = length;
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (values[tails[middle]] < values[i]) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+
+            if (low == length) {
+                length++;
+            }
+        }
+
+        for (int i = tails[length - 1]; i != -1; i = previous[i]) {
+            inRun[i] = true;
+        }
+
+        return inRun;
+    }
+
+    private int mNewCount;
+
+    // Ascending positions in the old list.
+    private int[] mRemovedPositions;
+
+    private int[] mKeptNewPositions;
+    private boolean[] mKeptInPlace;
+
+    private int mMovedCount;
+
+    private IdListDiff(int newCount, int[] removedPositions, int[] keptNewPositions, boolean[] keptInPlace) {
+        mNewCount = newCount;
+        mRemovedPositions = removedPositions;
+        mKeptNewPositions = keptNewPositions;
+        mKeptInPlace = keptInPlace;
+
+        for (boolean inPlace: keptInPlace) {
+            if (!inPlace) {
+                mMovedCount++;
+            }
+        }
+    }
+
+    public int getRemovedCount() {
+        return mRemovedPositions.length;
+    }
+
+    public int getInsertedCount() {
+        return mNewCount - mKeptNewPositions.length;
+    }
+
+    public int getMovedCount() {
+        return mMovedCount;
+    }
+
+    /**
+     * Reports the changes in an order that is valid for RecyclerView: removals from the last
+     * position to the first, then moves and insertions from the first new position to the last.
+     */
+    public void dispatchUpdatesTo(ListUpdateCallback callback) {
+        dispatchRemovals(callback);
+
+        if (mMovedCount == 0 && mKeptNewPositions.length == mNewCount) {
+            return;
+        }
+
+        if (mMovedCount == 0) {
+            dispatchInsertions(callback);
+        }
+        else {
+            dispatchMovesAndInsertions(callback);
+        }
+    }
+
+    private void dispatchRemovals(ListUpdateCallback callback) {
+        int runEnd = mRemovedPositions.length - 1;
+
+        for (int i = runEnd; i >= 0; i--) {
+            if (i == 0 || mRemovedPositions[i - 1] != mRemovedPositions[i] - 1) {
+                callback.onRemoved(mRemovedPositions[i], runEnd - i + 1);
+
+                runEnd = i - 1;
+            }
+        }
+    }
+
+    // Without moves the kept items are already in their new order so every gap is an insertion.
+    private void dispatchInsertions(ListUpdateCallback callback) {
+        int position = 0;
+
+        for (int i = 0; i <= mKeptNewPositions.length; i++) {
+            int nextKeptPosition = i < mKeptNewPositions.length ? mKeptNewPositions[i] : mNewCount;
+
+            if (nextKeptPosition > position) {
+                callback.onInserted(position, nextKeptPosition - position);
+            }
+
+            position = nextKeptPosition + 1;
+        }
+    }
+
+    /**
+     * Builds the new list from the first position to the last. Every item has an ordering key and
+     * its position is the number of items with a smaller key. Items in place are keyed by their new
+     * position. Items to be moved are keyed to sit right before the next item in place that
+     * followed them, until they are moved to their new position.
+     */
+    private void dispatchMovesAndInsertions(ListUpdateCallback callback) {
+        int keptCount = mKeptNewPositions.length;
+
+        // Which kept item is at each new position, -1 for insertions.
+        int[] keptAt = new int[mNewCount];
+        Arrays.fill(keptAt, -1);
+
+        long[] startKeys = new long[keptCount];
+        int nextInPlacePosition = mNewCount;
+
+        for (int i = keptCount - 1; i >= 0; i--) {
+            keptAt[mKeptNewPositions[i]] = i;
+
+            if (mKeptInPlace[i]) {
+                nextInPlacePosition = mKeptNewPositions[i];
+
+                startKeys[i] = getKey(nextInPlacePosition, keptCount);
+            }
+            else {
+                startKeys[i] = getKey(nextInPlacePosition, i);
+            }
+        }
+
+        long[] keys = new long[keptCount + mNewCount];
+        System.arraycopy(startKeys, 0, keys, 0, keptCount);
+
+        for (int position = 0; position < mNewCount; position++) {
+            keys[keptCount + position] = getKey(position, keptCount);
+        }
+
+        Counter counter = new Counter(keys);
+
+        for (long key: startKeys) {
+            counter.add(key, 1);
+        }
+
+        int insertStart = -1;
+        int insertCount = 0;
+
+        for (int position = 0; position < mNewCount; position++) {
+            int kept = keptAt[position];
+
+            if (kept == -1) {
+                long key = getKey(position, keptCount);
+
+                int at = counter.countBefore(key);
+                counter.add(key, 1);
+
+                if (insertCount > 0 && at == insertStart + insertCount) {
+                    insertCount++;
+                }
+                else {
+                    if (insertCount > 0) {
+                        callback.onInserted(insertStart, insertCount);
+                    }
+
+                    insertStart = at;
+                    insertCount = 1;
+                }
+
+                continue;
+            }
+
+            if (mKeptInPlace[kept]) {
+                continue;
+            }
+
+            if (insertCount > 0) {
+                callback.onInserted(insertStart, insertCount);
+
+                insertCount = 0;
+            }
+
+            long key = getKey(position, keptCount);
+
+            int from = counter.countBefore(startKeys[kept]);
+            counter.add(startKeys[kept], -1);
+
+            int to = counter.countBefore(key);
+            counter.add(key, 1);
+
+            if (from != to) {
+                callback.onMoved(from, to);
+            }
+        }
+
+        if (insertCount > 0) {
+            callback.onInserted(insertStart, insertCount);
+        }
+    }
+
+    /**
+     * Items waiting to be moved use their old order as the minor part so they sort before the item
+     * in place at the same position, which uses the largest.
+     */
+    private static long getKey(int position, int minor) {
+        return ((long) position << 32) | minor;
+    }
+
+    /**
+     * Counts items by key in a Fenwick tree over all the keys that are going to be used.
+     */
+    private static class Counter {
+
+        private long[] mKeys;
+        private int[] mTree;
+
+        /**
+         * @param keys Every key that is going to be counted. Items in place appear twice.
+         */
+        private Counter(long[] keys) {
+            Arrays.sort(keys);
+
+            int count = 0;
+
+            for (int i = 0; i < keys.length; i++) {
+                if (i == 0 || keys[i] != keys[i - 1]) {
+                    keys[count++] = keys[i];
+                }
+            }
+
+            mKeys = Arrays.copyOf(keys, count);
+            mTree = new int[count + 1];
+        }
+
+        private void add(long key, int delta) {
+            for (int i = Arrays.binarySearch(mKeys, key) + 1; i < mTree.length; i += i & -i) {
+                mTree[i] += delta;
+            }
+        }
+
+        private int countBefore(long key) {
+            int count = 0;
+
+            for (int i = Arrays.binarySearch(mKeys, key); i > 0; i -= i & -i) {
+                count += mTree[i];
+            }
+
+            return count;
+        }
+
+    }
+
+}
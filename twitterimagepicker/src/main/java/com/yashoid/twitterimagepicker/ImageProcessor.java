@@ -0,0 +1,518 @@
+package com.yashoid.twitterimagepicker;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Downscales the selected images and encodes them again into the app's cache directory. Images
+ * are processed as soon as they are selected so most of them are ready by the time the user is
+ * done. Full size images are large so only a couple are decoded at a time.
+ */
+class ImageProcessor {
+
+    private static final String TAG = "ImageProcessor";
+
+    private static final String DIRECTORY = "twitterimagepicker_output";
+
+    private static final int THREADS = 2;
+
+    interface OnProgressListener {
+
+        /**
+         * Called on the main thread every time an image is processed or the selection changes.
+         */
+        void onProgress(ImageProcessor processor, int processedCount, int imageCount);
+
+    }
+
+    private Context mContext;
+
+    private int mMaxDimension;
+    private Bitmap.CompressFormat mFormat;
+    private int mQuality;
+
+    private ThreadPoolExecutor mExecutor;
+    private int mWorkerCount = 0;
+
+    // Image id to its job, in the order they were selected.
+    private HashMap<Long, Job> mJobs = new HashMap<>();
+    private long[] mImageIds = new long[0];
+
+    private ArrayDeque<Job> mPendingJobs = new ArrayDeque<>();
+
+    private int mProcessedCount = 0;
+
+    private OnProgressListener mOnProgressListener = null;
+
+    private Handler mHandler = new Handler(Looper.getMainLooper());
+
+    ImageProcessor(Context context, int maxDimension, Bitmap.CompressFormat format, int quality) {
+        mContext = context.getApplicationContext();
+
+        mMaxDimension = maxDimension;
+        mFormat = format;
+        mQuality = quality;
+
+        mExecutor = PickerExecutor.createExecutor(THREADS, THREADS, "process", Process.THREAD_PRIORITY_BACKGROUND);
+
+        clearOldOutputs(System.currentTimeMillis());
+    }
+
+    /**
+     * Deletes the outputs of earlier pickers. Files written from now on are kept so the jobs of this
+     * processor can run alongside.
+     */
+    private void clearOldOutputs(final long startTime) {
+        final File cacheDir = mContext.getCacheDir();
+
+        if (cacheDir == null) {
+            return;
+        }
+
+        try {
+            mExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    File[] files = new File(cacheDir, DIRECTORY).listFiles();
+
+                    if (files == null) {
+                        return;
+                    }
+
+                    for (File file: files) {
+                        // Some file systems only keep whole seconds.
+                        if (file.lastModified() < startTime - 1000) {
+                            file.delete();
+                        }
+                    }
+                }
+
+            });
+        } catch (RejectedExecutionException e) { }
+    }
+
+    public void setOnProgressListener(OnProgressListener listener) {
+        mOnProgressListener = listener;
+    }
+
+    /**
+     * Starts processing the images that are new, and cancels and deletes the output of the ones
+     * that are not in the given ids anymore.
+     * @param imageIds In the order the outputs should be in.
+     */
+    public void setImages(long[] imageIds, GalleryAccess galleryAccess) {
+        synchronized (this) {
+            HashMap<Long, Job> jobs = new HashMap<>(imageIds.length * 2);
+
+            for (long imageId: imageIds) {
+                Job job = mJobs.remove(imageId);
+
+                if (job == null) {
+                    job = new Job(imageId, galleryAccess.getImageOrientation(imageId));
+
+                    mPendingJobs.addLast(job);
+                }
+
+                jobs.put(imageId, job);
+            }
+
+            for (Job job: mJobs.values()) {
+                cancel(job);
+            }
+
+            mJobs = jobs;
+            mImageIds = imageIds;
+
+            startWorkers();
+        }
+
+        notifyProgress();
+    }
+
+    synchronized public int getImageCount() {
+        return mImageIds.length;
+    }
+
+    synchronized public int getProcessedCount() {
+        return mProcessedCount;
+    }
+
+    synchronized public boolean isComplete() {
+        return mProcessedCount == mImageIds.length;
+    }
+
+    /**
+     * @return The outputs in the order of the image ids. The original image where processing failed.
+     */
+    synchronized public Uri[] getOutputUris() {
+        Uri[] uris = new Uri[mImageIds.length];
+
+        for (int i = 0; i < mImageIds.length; i++) {
+            Job job = mJobs.get(mImageIds[i]);
+
+            uris[i] = job.mOutput != null ? Uri.fromFile(job.mOutput) : GalleryAccess.getImageUriForId(job.mImageId);
+        }
+
+        return uris;
+    }
+
+    /**
+     * Stops processing.
+     * @param deleteOutputs true if the outputs are not going to be used.
+     */
+    public void release(boolean deleteOutputs) {
+        synchronized (this) {
+            mPendingJobs.clear();
+
+            for (Job job: mJobs.values()) {
+                job.mCancelled = true;
+
+                if (deleteOutputs) {
+                    deleteOutput(job);
+                }
+            }
+
+            mJobs.clear();
+            mImageIds = new long[0];
+        }
+
+        mOnProgressListener = null;
+    }
+
+    private void cancel(Job job) {
+        job.mCancelled = true;
+
+        mPendingJobs.remove(job);
+
+        if (job.mDone) {
+            mProcessedCount--;
+        }
+
+        deleteOutput(job);
+    }
+
+    private static void deleteOutput(Job job) {
+        if (job.mOutput != null) {
+            job.mOutput.delete();
+            job.mOutput = null;
+        }
+    }
+
+    private void startWorkers() {
+        while (mWorkerCount < THREADS && !mPendingJobs.isEmpty()) {
+            try {
+                mExecutor.execute(mWorker);
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+
+            mWorkerCount++;
+        }
+    }
+
+    synchronized private Job pollJob() {
+        Job job = mPendingJobs.pollFirst();
+
+        if (job == null) {
+            mWorkerCount--;
+        }
+
+        return job;
+    }
+
+    private Runnable mWorker = new Runnable() {
+
+        @Override
+        public void run() {
+            Job job;
+
+            while ((job = pollJob()) != null) {
+                File output = process(job);
+
+                synchronized (ImageProcessor.this) {
+                    if (job.mCancelled) {
+                        // Output names are unique per job so this is never another job's file.
+                        if (output != null) {
+                            output.delete();
+                        }
+
+                        continue;
+                    }
+
+                    job.mOutput = output;
+                    job.mDone = true;
+
+                    mProcessedCount++;
+                }
+
+                notifyProgress();
+            }
+        }
+
+    };
+
+    private void notifyProgress() {
+        mHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                OnProgressListener listener = mOnProgressListener;
+
+                if (listener == null) {
+                    return;
+                }
+
+                int processedCount;
+                int imageCount;
+
+                synchronized (ImageProcessor.this) {
+                    processedCount = mProcessedCount;
+                    imageCount = mImageIds.length;
+                }
+
+                listener.onProgress(ImageProcessor.this, processedCount, imageCount);
+            }
+
+        });
+    }
+
+    /**
+     * @return null if it failed.
+     */
+    private File process(Job job) {
+        Uri imageUri = GalleryAccess.getImageUriForId(job.mImageId);
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+
+        Bitmap bitmap;
+
+        try {
+            decode(contentResolver, imageUri, options);
+
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            int longSide = Math.max(options.outWidth, options.outHeight);
+
+            int sampleSize = 1;
+
+            while (longSide / (sampleSize * 2) >= mMaxDimension) {
+                sampleSize *= 2;
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+
+            bitmap = decode(contentResolver, imageUri, options);
+        } catch (IOException | OutOfMemoryError e) {
+            Log.e(TAG, "Failed to decode image for uri: " + imageUri, e);
+            return null;
+        }
+
+        if (bitmap == null || job.mCancelled) {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+
+            return null;
+        }
+
+        int orientation = job.mOrientation;
+
+        if (orientation == 0) {
+            orientation = readExifOrientation(contentResolver, imageUri);
+        }
+
+        File output = null;
+
+        try {
+            int longSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+
+            if (longSide > mMaxDimension) {
+                int width = Math.max(1, Math.round((float) bitmap.getWidth() * mMaxDimension / longSide));
+                int height = Math.max(1, Math.round((float) bitmap.getHeight() * mMaxDimension / longSide));
+
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+
+                if (scaled != bitmap) {
+                    bitmap.recycle();
+                    bitmap = scaled;
+                }
+            }
+
+            bitmap = StreamThumbnailLoader.rotate(bitmap, orientation);
+
+            output = createOutputFile(job.mImageId);
+
+            write(bitmap, output);
+
+            return output;
+        } catch (IOException | OutOfMemoryError e) {
+            Log.e(TAG, "Failed to process image for uri: " + imageUri, e);
+
+            if (output != null) {
+                output.delete();
+            }
+
+            return null;
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * For when MediaStore has no orientation for the image. Reading EXIF from a stream needs API 24.
+     * @return The rotation in degrees. 0 if unknown.
+     */
+    private static int readExifOrientation(ContentResolver contentResolver, Uri imageUri) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return 0;
+        }
+
+        try {
+            InputStream input = contentResolver.openInputStream(imageUri);
+
+            if (input == null) {
+                return 0;
+            }
+
+            try {
+                ExifInterface exif = new ExifInterface(input);
+
+                switch (exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)) {
+                    case ExifInterface.ORIENTATION_ROTATE_90:
+                        return 90;
+                    case ExifInterface.ORIENTATION_ROTATE_180:
+                        return 180;
+                    case ExifInterface.ORIENTATION_ROTATE_270:
+                        return 270;
+                    default:
+                        return 0;
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read orientation for uri: " + imageUri, e);
+            return 0;
+        }
+    }
+
+    private static Bitmap decode(ContentResolver contentResolver, Uri imageUri, BitmapFactory.Options options) throws IOException {
+        InputStream input = contentResolver.openInputStream(imageUri);
+
+        if (input == null) {
+            throw new IOException("Failed to open image.");
+        }
+
+        try {
+            return BitmapFactory.decodeStream(input, null, options);
+        } finally {
+            input.close();
+        }
+    }
+
+    private void write(Bitmap bitmap, File file) throws IOException {
+        // As unique as the file itself so no other job can write to it.
+        File temp = new File(file.getPath() + ".tmp");
+
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(temp));
+
+        try {
+            if (!bitmap.compress(mFormat, mQuality, output)) {
+                throw new IOException("Failed to encode image.");
+            }
+        } catch (IOException e) {
+            output.close();
+            temp.delete();
+
+            throw e;
+        }
+
+        output.close();
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+
+            throw new IOException("Failed to move processed image into place.");
+        }
+    }
+
+    /**
+     * Creates an empty file with a name of its own. A job for an image that was deselected while it
+     * was processed and then selected again can not touch the output of the new job that way.
+     */
+    private File createOutputFile(long imageId) throws IOException {
+        File cacheDir = mContext.getCacheDir();
+
+        if (cacheDir == null) {
+            throw new IOException("No cache directory.");
+        }
+
+        File directory = new File(cacheDir, DIRECTORY);
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Failed to create output directory.");
+        }
+
+        String extension;
+
+        switch (mFormat) {
+            case PNG:
+                extension = ".png";
+                break;
+            case JPEG:
+                extension = ".jpg";
+                break;
+            default:
+                extension = ".webp";
+                break;
+        }
+
+        return File.createTempFile(imageId + "_" + mMaxDimension + "_" + mQuality + "_", extension, directory);
+    }
+
+    private static class Job {
+
+        private long mImageId;
+        private int mOrientation;
+
+        private File mOutput = null;
+
+        // Only changed under the processor's lock. Read without it while processing to stop early.
+        private volatile boolean mCancelled = false;
+        private boolean mDone = false;
+
+        private Job(long imageId, int orientation) {
+            mImageId = imageId;
+            mOrientation = orientation;
+        }
+
+    }
+
+}
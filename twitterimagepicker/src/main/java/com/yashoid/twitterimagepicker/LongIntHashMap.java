@@ -0,0 +1,185 @@
+package com.yashoid.twitterimagepicker;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long to int that does not box its keys or values.
+ */
+class LongIntHashMap {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private static final long FREE_KEY = 0;
+
+    private long[] mKeys;
+    private int[] mValues;
+
+    private boolean mHasFreeKey = false;
+    private int mFreeKeyValue;
+
+    private int mSize = 0;
+    private int mThreshold;
+    private int mMask;
+
+    private int mMissingValue;
+
+    LongIntHashMap(int expectedSize, int missingValue) {
+        int capacity = 16;
+
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+
+        allocate(capacity);
+
+        mMissingValue = missingValue;
+    }
+
+    LongIntHashMap(LongIntHashMap map) {
+        mKeys = map.mKeys.clone();
+        mValues = map.mValues.clone();
+        mHasFreeKey = map.mHasFreeKey;
+        mFreeKeyValue = map.mFreeKeyValue;
+        mSize = map.mSize;
+        mThreshold = map.mThreshold;
+        mMask = map.mMask;
+        mMissingValue = map.mMissingValue;
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        mMask = capacity - 1;
+        mThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE_KEY) {
+            return mHasFreeKey;
+        }
+
+        return mKeys[indexOf(key)] != FREE_KEY;
+    }
+
+    public int get(long key) {
+        if (key == FREE_KEY) {
+            return mHasFreeKey ? mFreeKeyValue : mMissingValue;
+        }
+
+        int index = indexOf(key);
+
+        return mKeys[index] == FREE_KEY ? mMissingValue : mValues[index];
+    }
+
+    public void put(long key, int value) {
+        if (key == FREE_KEY) {
+            if (!mHasFreeKey) {
+                mHasFreeKey = true;
+                mSize++;
+            }
+
+            mFreeKeyValue = value;
+            return;
+        }
+
+        int index = indexOf(key);
+
+        if (mKeys[index] == FREE_KEY) {
+            mKeys[index] = key;
+            mSize++;
+        }
+
+        mValues[index] = value;
+
+        if (mSize > mThreshold) {
+            rehash(mKeys.length << 1);
+        }
+    }
+
+    public int remove(long key) {
+        if (key == FREE_KEY) {
+            if (!mHasFreeKey) {
+                return mMissingValue;
+            }
+
+            mHasFreeKey = false;
+            mSize--;
+
+            return mFreeKeyValue;
+        }
+
+        int index = indexOf(key);
+
+        if (mKeys[index] == FREE_KEY) {
+            return mMissingValue;
+        }
+
+        int value = mValues[index];
+
+        mKeys[index] = FREE_KEY;
+        mSize--;
+
+        // Backward shift the following entries of the probe sequence so lookups never stop early.
+        int next = (index + 1) & mMask;
+
+        while (mKeys[next] != FREE_KEY) {
+            int ideal = hash(mKeys[next]) & mMask;
+
+            if (((next - ideal) & mMask) >= ((next - index) & mMask)) {
+                mKeys[index] = mKeys[next];
+                mValues[index] = mValues[next];
+                mKeys[next] = FREE_KEY;
+
+                index = next;
+            }
+
+            next = (next + 1) & mMask;
+        }
+
+        return value;
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, FREE_KEY);
+
+        mHasFreeKey = false;
+        mSize = 0;
+    }
+
+    private int indexOf(long key) {
+        int index = hash(key) & mMask;
+
+        while (mKeys[index] != FREE_KEY && mKeys[index] != key) {
+            index = (index + 1) & mMask;
+        }
+
+        return index;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        int[] values = mValues;
+
+        allocate(capacity);
+
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE_KEY) {
+                int index = indexOf(keys[i]);
+
+                mKeys[index] = keys[i];
+                mValues[index] = values[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+
+        return (int) (h ^ (h >>> 32));
+    }
+
+}
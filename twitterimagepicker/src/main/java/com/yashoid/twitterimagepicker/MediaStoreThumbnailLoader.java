@@ -0,0 +1,86 @@
+package com.yashoid.twitterimagepicker;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.util.Log;
+import android.util.Size;
+
+import java.io.IOException;
+
+/**
+ * Loads the thumbnails MediaStore keeps for the images. {@link ContentResolver#loadThumbnail} on Q
+ * and later, the mini thumbnails before that.
+ */
+public class MediaStoreThumbnailLoader implements ThumbnailLoader {
+
+    private static final String TAG = "MediaStoreThumbnailLoader";
+
+    private Context mContext;
+
+    private int mMiniThumbnailWidth = 0;
+    private int mMiniThumbnailHeight = 0;
+
+    public MediaStoreThumbnailLoader(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public Bitmap loadThumbnail(Uri imageUri, int orientation, int size, Bitmap.Config opaqueConfig, BitmapPool bitmapPool) {
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            try {
+                // Already upright.
+                return contentResolver.loadThumbnail(imageUri, new Size(size, size), null);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to get bitmap for uri: " + imageUri, e);
+
+                return null;
+            }
+        }
+
+        long imageId = ContentUris.parseId(imageUri);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+
+        // Mini thumbnails are JPEGs and mostly share the same dimensions so the last seen ones are a good guess.
+        bitmapPool.prepareOptions(options, mMiniThumbnailWidth, mMiniThumbnailHeight, opaqueConfig);
+
+        Bitmap bitmap = getMiniThumbnail(contentResolver, imageId, options);
+
+        if (bitmap == null && options.inBitmap != null) {
+            bitmapPool.put(options.inBitmap);
+
+            options.inBitmap = null;
+
+            bitmap = getMiniThumbnail(contentResolver, imageId, options);
+        }
+
+        if (bitmap == null) {
+            Log.e(TAG, "Failed to get bitmap for uri: " + imageUri);
+            return null;
+        }
+
+        mMiniThumbnailWidth = bitmap.getWidth();
+        mMiniThumbnailHeight = bitmap.getHeight();
+
+        return StreamThumbnailLoader.rotate(bitmap, orientation, bitmapPool);
+    }
+
+    private static Bitmap getMiniThumbnail(ContentResolver contentResolver, long imageId, BitmapFactory.Options options) {
+        try {
+            return MediaStore.Images.Thumbnails.getThumbnail(contentResolver, imageId,
+                    MediaStore.Images.Thumbnails.MINI_KIND, options);
+        } catch (IllegalArgumentException e) {
+            // Thrown when the pooled bitmap in the options could not be decoded into.
+            return null;
+        }
+    }
+
+}
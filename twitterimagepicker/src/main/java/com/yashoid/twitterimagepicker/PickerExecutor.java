@@ -0,0 +1,147 @@
+package com.yashoid.twitterimagepicker;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The picker's own worker threads so it neither competes with the host app's tasks nor waits
+ * behind them. MediaStore queries and file writes run in the I/O lane, thumbnail decodes in the
+ * decode lane. Both lanes have bounded queues and their threads stop after a while of being idle.
+ */
+class PickerExecutor {
+
+    private static final String TAG = "PickerExecutor";
+
+    private static final int IO_THREADS = 2;
+    private static final int IO_QUEUE_SIZE = 16;
+
+    private static final int MAX_DECODE_THREADS = 4;
+
+    private static final long KEEP_ALIVE_SECONDS = 3;
+
+    // Before trying to queue an I/O task again when the lane is full.
+    private static final long IO_RETRY_DELAY = 100;
+
+    private ThreadPoolExecutor mIoExecutor;
+    private ThreadPoolExecutor mDecodeExecutor;
+
+    private int mDecodeThreadCount;
+
+    private Handler mHandler = new Handler(Looper.getMainLooper());
+
+    PickerExecutor() {
+        // One core is left for the main thread and the host app.
+        mDecodeThreadCount = Math.max(1, Math.min(MAX_DECODE_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+
+        mIoExecutor = createExecutor(IO_THREADS, IO_QUEUE_SIZE, "io", Process.THREAD_PRIORITY_BACKGROUND);
+
+        // Decode workers drain the thumbnail queues themselves so one queued worker per thread is enough.
+        mDecodeExecutor = createExecutor(mDecodeThreadCount, mDecodeThreadCount, "decode",
+                Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE);
+    }
+
+    static ThreadPoolExecutor createExecutor(int threadCount, int queueSize, String lane, int threadPriority) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize),
+                new LaneThreadFactory(lane, threadPriority));
+
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    public int getDecodeThreadCount() {
+        return mDecodeThreadCount;
+    }
+
+    /**
+     * Runs the task in the I/O lane after the delay. If the lane is full it is tried again shortly
+     * after, so the caller is never blocked. Dropped once shut down.
+     */
+    public void executeIo(final Runnable task, long delay) {
+        if (mIoExecutor.isShutdown()) {
+            return;
+        }
+
+        if (delay > 0) {
+            mHandler.postDelayed(new Runnable() {
+
+                @Override
+                public void run() {
+                    executeIo(task, 0);
+                }
+
+            }, delay);
+            return;
+        }
+
+        try {
+            mIoExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "I/O lane is full. Retrying.");
+
+            executeIo(task, IO_RETRY_DELAY);
+        }
+    }
+
+    /**
+     * @return false if all the decode threads are already busy or queued.
+     */
+    public boolean executeDecode(Runnable worker) {
+        try {
+            mDecodeExecutor.execute(worker);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Drops the queued and delayed tasks and interrupts the running ones. Nothing is run after.
+     */
+    public void shutdown() {
+        mIoExecutor.shutdownNow();
+        mDecodeExecutor.shutdownNow();
+
+        mHandler.removeCallbacksAndMessages(null);
+    }
+
+    private static class LaneThreadFactory implements ThreadFactory {
+
+        private String mLane;
+        private int mThreadPriority;
+
+        private AtomicInteger mThreadCount = new AtomicInteger(0);
+
+        private LaneThreadFactory(String lane, int threadPriority) {
+            mLane = lane;
+            mThreadPriority = threadPriority;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    Process.setThreadPriority(mThreadPriority);
+
+                    runnable.run();
+                }
+
+            }, "TwitterImagePicker-" + mLane + "-" + mThreadCount.incrementAndGet());
+        }
+
+    }
+
+}
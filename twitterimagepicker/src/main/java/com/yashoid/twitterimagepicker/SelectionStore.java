@@ -0,0 +1,153 @@
+package com.yashoid.twitterimagepicker;
+
+import java.util.Arrays;
+
+/**
+ * Ordered set of image ids. Membership, adding and removing are O(1) so selecting thousands of
+ * images costs the same per click and bind as selecting a few. Ids are kept in the order they were
+ * added, linked through slots of plain arrays.
+ */
+class SelectionStore {
+
+    private static final int NONE = -1;
+
+    // Image id to its slot.
+    private LongIntHashMap mSlots;
+
+    private long[] mIds;
+    private int[] mPrevious;
+    private int[] mNext;
+
+    private int mHead = NONE;
+    private int mTail = NONE;
+
+    private int[] mFreeSlots;
+    private int mFreeSlotCount = 0;
+    private int mSlotCount = 0;
+
+    SelectionStore(int expectedSize) {
+        int capacity = Math.max(8, expectedSize);
+
+        mSlots = new LongIntHashMap(capacity, NONE);
+
+        mIds = new long[capacity];
+        mPrevious = new int[capacity];
+        mNext = new int[capacity];
+        mFreeSlots = new int[capacity];
+    }
+
+    public int size() {
+        return mSlots.size();
+    }
+
+    public boolean isEmpty() {
+        return mSlots.size() == 0;
+    }
+
+    public boolean contains(long imageId) {
+        return mSlots.containsKey(imageId);
+    }
+
+    /**
+     * @return false if it was already in the selection.
+     */
+    public boolean add(long imageId) {
+        if (mSlots.containsKey(imageId)) {
+            return false;
+        }
+
+        int slot = obtainSlot();
+
+        mIds[slot] = imageId;
+        mPrevious[slot] = mTail;
+        mNext[slot] = NONE;
+
+        if (mTail == NONE) {
+            mHead = slot;
+        }
+        else {
+            mNext[mTail] = slot;
+        }
+
+        mTail = slot;
+
+        mSlots.put(imageId, slot);
+
+        return true;
+    }
+
+    /**
+     * @return false if it was not in the selection.
+     */
+    public boolean remove(long imageId) {
+        int slot = mSlots.remove(imageId);
+
+        if (slot == NONE) {
+            return false;
+        }
+
+        int previous = mPrevious[slot];
+        int next = mNext[slot];
+
+        if (previous == NONE) {
+            mHead = next;
+        }
+        else {
+            mNext[previous] = next;
+        }
+
+        if (next == NONE) {
+            mTail = previous;
+        }
+        else {
+            mPrevious[next] = previous;
+        }
+
+        mFreeSlots[mFreeSlotCount++] = slot;
+
+        return true;
+    }
+
+    public void clear() {
+        mSlots.clear();
+
+        mHead = NONE;
+        mTail = NONE;
+
+        mFreeSlotCount = 0;
+        mSlotCount = 0;
+    }
+
+    /**
+     * @return The ids in the order they were selected.
+     */
+    public long[] toArray() {
+        long[] ids = new long[mSlots.size()];
+
+        int index = 0;
+
+        for (int slot = mHead; slot != NONE; slot = mNext[slot]) {
+            ids[index++] = mIds[slot];
+        }
+
+        return ids;
+    }
+
+    private int obtainSlot() {
+        if (mFreeSlotCount > 0) {
+            return mFreeSlots[--mFreeSlotCount];
+        }
+
+        if (mSlotCount == mIds.length) {
+            int capacity = mSlotCount * 2;
+
+            mIds = Arrays.copyOf(mIds, capacity);
+            mPrevious = Arrays.copyOf(mPrevious, capacity);
+            mNext = Arrays.copyOf(mNext, capacity);
+            mFreeSlots = Arrays.copyOf(mFreeSlots, capacity);
+        }
+
+        return mSlotCount++;
+    }
+
+}
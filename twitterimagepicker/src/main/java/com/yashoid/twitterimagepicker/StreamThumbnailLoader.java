@@ -0,0 +1,172 @@
+package com.yashoid.twitterimagepicker;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes thumbnails straight from the image. The image is subsampled by the largest power of two
+ * that keeps it larger than the cell and then scaled to exactly cover the cell while decoding.
+ * JPEGs are decoded into the opaque config.
+ */
+public class StreamThumbnailLoader implements ThumbnailLoader {
+
+    private static final String TAG = "StreamThumbnailLoader";
+
+    private static final String MIME_TYPE_JPEG = "image/jpeg";
+
+    private Context mContext;
+
+    public StreamThumbnailLoader(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public Bitmap loadThumbnail(Uri imageUri, int orientation, int size, Bitmap.Config opaqueConfig, BitmapPool bitmapPool) {
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+
+        try {
+            decode(contentResolver, imageUri, options);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read image bounds for uri: " + imageUri, e);
+            return null;
+        }
+
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int shortSide = Math.min(options.outWidth, options.outHeight);
+
+        int sampleSize = 1;
+
+        while (shortSide / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+
+        int sampledWidth = options.outWidth / sampleSize;
+        int sampledHeight = options.outHeight / sampleSize;
+        int sampledShortSide = Math.min(sampledWidth, sampledHeight);
+
+        int width = sampledWidth;
+        int height = sampledHeight;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+
+        if (sampledShortSide > size) {
+            // Scaled while decoding so the short side is exactly the cell size.
+            options.inScaled = true;
+            options.inDensity = sampledShortSide;
+            options.inTargetDensity = size;
+
+            width = Math.round((float) sampledWidth * size / sampledShortSide);
+            height = Math.round((float) sampledHeight * size / sampledShortSide);
+        }
+
+        Bitmap.Config config = MIME_TYPE_JPEG.equals(options.outMimeType) ? opaqueConfig : Bitmap.Config.ARGB_8888;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT || sampleSize == 1) {
+            bitmapPool.prepareOptions(options, width, height, config);
+        }
+        else {
+            // Before KitKat only bitmaps decoded without subsampling can be decoded into.
+            options.inPreferredConfig = config;
+        }
+
+        Bitmap bitmap;
+
+        try {
+            try {
+                bitmap = decode(contentResolver, imageUri, options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) {
+                    throw e;
+                }
+
+                // The pooled bitmap could not be reused for this image.
+                bitmapPool.put(options.inBitmap);
+
+                options.inBitmap = null;
+
+                bitmap = decode(contentResolver, imageUri, options);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to decode image for uri: " + imageUri, e);
+            return null;
+        }
+
+        if (bitmap == null) {
+            Log.e(TAG, "Failed to decode image for uri: " + imageUri);
+            return null;
+        }
+
+        return rotate(bitmap, orientation, bitmapPool);
+    }
+
+    private static Bitmap decode(ContentResolver contentResolver, Uri imageUri, BitmapFactory.Options options) throws IOException {
+        InputStream input = contentResolver.openInputStream(imageUri);
+
+        if (input == null) {
+            throw new IOException("Failed to open image.");
+        }
+
+        try {
+            return BitmapFactory.decodeStream(input, null, options);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Returns the bitmap rotated to be upright. The original is recycled if it is replaced.
+     */
+    static Bitmap rotate(Bitmap bitmap, int orientation) {
+        if (orientation % 360 == 0) {
+            return bitmap;
+        }
+
+        Matrix matrix = new Matrix();
+        matrix.setRotate(orientation);
+
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+
+        return rotated;
+    }
+
+    /**
+     * Returns the bitmap rotated to be upright. The original is put in the pool if it is replaced.
+     */
+    static Bitmap rotate(Bitmap bitmap, int orientation, BitmapPool bitmapPool) {
+        if (orientation % 360 == 0) {
+            return bitmap;
+        }
+
+        Matrix matrix = new Matrix();
+        matrix.setRotate(orientation);
+
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+
+        if (rotated != bitmap && !bitmapPool.put(bitmap)) {
+            bitmap.recycle();
+        }
+
+        return rotated;
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.yashoid.twitterimagepicker;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+/**
+ * Loads the thumbnails that {@link GalleryAccess} caches. Called on a worker thread.
+ *
+ * @see StreamThumbnailLoader
+ * @see MediaStoreThumbnailLoader
+ */
+public interface ThumbnailLoader {
+
+    /**
+     * @param orientation Clockwise rotation of the image in degrees. The thumbnail is expected upright.
+     * @param size The thumbnail should cover a size by size square.
+     * @param opaqueConfig Config to use for images that have no transparency.
+     * @param bitmapPool Bitmaps that can be decoded into.
+     * @return null if the thumbnail could not be loaded.
+     */
+    Bitmap loadThumbnail(Uri imageUri, int orientation, int size, Bitmap.Config opaqueConfig, BitmapPool bitmapPool);
+
+}
@@ -0,0 +1,186 @@
+package com.yashoid.twitterimagepicker;
+
+import android.os.SystemClock;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Loads the thumbnails of the rows ahead of the viewport in the scroll direction. The faster the
+ * list is scrolling the more rows are prefetched. Prefetches that fall out of range are cancelled.
+ */
+class ThumbnailPrefetcher extends RecyclerView.OnScrollListener {
+
+    interface ImageSource {
+
+        int getItemCount();
+
+        long getImageId(int position);
+
+    }
+
+    private static final int MIN_PREFETCH_ROWS = 2;
+    private static final int MAX_PREFETCH_ROWS = 12;
+
+    // How far ahead of the scroll to look. Roughly the time a thumbnail takes to load.
+    private static final long LOOKAHEAD_TIME = 300;
+
+    private static final long VELOCITY_TIMEOUT = 100;
+
+    private GalleryAccess mGalleryAccess;
+    private ImageSource mImageSource;
+
+    private int mDirection = 1;
+    private float mVelocity = 0;
+    private long mLastScrollTime = 0;
+
+    private int mPrefetchStart = 0;
+    private int mPrefetchEnd = 0;
+
+    // Kept as plain arrays so scrolling does not allocate.
+    private long[] mPrefetchedIds = new long[MAX_PREFETCH_ROWS * 3];
+    private long[] mHelperIds = new long[MAX_PREFETCH_ROWS * 3];
+    private int mPrefetchedCount = 0;
+
+    ThumbnailPrefetcher(GalleryAccess galleryAccess, ImageSource imageSource) {
+        mGalleryAccess = galleryAccess;
+        mImageSource = imageSource;
+    }
+
+    /**
+     * Cancels all the prefetches. Must be called when the images behind the positions change.
+     */
+    public void reset() {
+        for (int i = 0; i < mPrefetchedCount; i++) {
+            mGalleryAccess.cancelPrefetch(mPrefetchedIds[i]);
+        }
+
+        mPrefetchedCount = 0;
+
+        mPrefetchStart = 0;
+        mPrefetchEnd = 0;
+    }
+
+    @Override
+    public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            mVelocity = 0;
+
+            update(recyclerView);
+        }
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - mLastScrollTime;
+
+        mLastScrollTime = now;
+
+        if (dy != 0) {
+            mDirection = dy > 0 ? 1 : -1;
+        }
+
+        if (elapsed > 0 && elapsed < VELOCITY_TIMEOUT) {
+            mVelocity = (mVelocity + Math.abs(dy) / (float) elapsed) / 2;
+        }
+        else {
+            mVelocity = 0;
+        }
+
+        update(recyclerView);
+    }
+
+    private void update(RecyclerView recyclerView) {
+        RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+
+        if (!(layoutManager instanceof LinearLayoutManager) || recyclerView.getChildCount() == 0) {
+            return;
+        }
+
+        LinearLayoutManager linearLayoutManager = (LinearLayoutManager) layoutManager;
+
+        int firstVisible = linearLayoutManager.findFirstVisibleItemPosition();
+        int lastVisible = linearLayoutManager.findLastVisibleItemPosition();
+
+        if (firstVisible == RecyclerView.NO_POSITION || lastVisible == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        int spanCount = layoutManager instanceof GridLayoutManager ? ((GridLayoutManager) layoutManager).getSpanCount() : 1;
+
+        View child = recyclerView.getChildAt(0);
+        int rowHeight = Math.max(1, child.getHeight());
+
+        int rows = MIN_PREFETCH_ROWS + (int) (mVelocity * LOOKAHEAD_TIME / rowHeight);
+        rows = Math.min(rows, MAX_PREFETCH_ROWS);
+
+        int itemCount = mImageSource.getItemCount();
+
+        int start;
+        int end;
+
+        if (mDirection > 0) {
+            start = lastVisible + 1;
+            end = Math.min(itemCount, start + rows * spanCount);
+        }
+        else {
+            end = firstVisible;
+            start = Math.max(0, end - rows * spanCount);
+        }
+
+        if (start >= end) {
+            start = end = 0;
+        }
+
+        if (start == mPrefetchStart && end == mPrefetchEnd) {
+            return;
+        }
+
+        mPrefetchStart = start;
+        mPrefetchEnd = end;
+
+        int count = end - start;
+
+        if (mHelperIds.length < count) {
+            mHelperIds = new long[count];
+        }
+
+        long[] ids = mHelperIds;
+
+        // Nearest to the viewport first so they are loaded first.
+        for (int i = 0; i < count; i++) {
+            ids[i] = mImageSource.getImageId(mDirection > 0 ? start + i : end - 1 - i);
+        }
+
+        for (int i = 0; i < mPrefetchedCount; i++) {
+            if (!contains(ids, count, mPrefetchedIds[i])) {
+                mGalleryAccess.cancelPrefetch(mPrefetchedIds[i]);
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (!contains(mPrefetchedIds, mPrefetchedCount, ids[i])) {
+                mGalleryAccess.prefetchThumbnail(ids[i]);
+            }
+        }
+
+        mHelperIds = mPrefetchedIds;
+        mPrefetchedIds = ids;
+        mPrefetchedCount = count;
+    }
+
+    private static boolean contains(long[] ids, int count, long id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+}
@@ -1,31 +1,55 @@
 package com.yashoid.twitterimagepicker;
 
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.BaseAdapter;
+import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.TextView;
 
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
+import java.util.Arrays;
 import java.util.List;
 
 public class TwitterImagePickerActivity extends AppCompatActivity implements
-        GalleryAccess.OnPreparedListener, AdapterView.OnItemSelectedListener,
-        View.OnClickListener {
+        GalleryAccess.OnIndexChangedListener, AdapterView.OnItemSelectedListener,
+        View.OnClickListener, View.OnTouchListener, GalleryFragment.OnSelectionChangedListener,
+        ImageProcessor.OnProgressListener {
+
+    // Buckets whose covers are loaded when the drop down opens. About what fits on the screen.
+    private static final int PREFETCHED_COVER_COUNT = 12;
+
+    // Largest buckets whose first screen is loaded when the drop down opens.
+    private static final int LIKELY_BUCKET_COUNT = 2;
 
     public static final String EXTRA_SELECTION_MODE = "selection_mode";
     public static final String EXTRA_MULTI_SELECT_MAX_COUNT = "multi_select_max_count";
+    public static final String EXTRA_OUTPUT_MAX_DIMENSION = "output_max_dimension";
+    public static final String EXTRA_OUTPUT_FORMAT = "output_format";
+    public static final String EXTRA_OUTPUT_QUALITY = "output_quality";
 
     public static final String EXTRA_OUTPUT = MediaStore.EXTRA_OUTPUT;
 
+    /**
+     * When the images are processed, contains the Uris of the images that were picked in the same
+     * form as EXTRA_OUTPUT.
+     */
+    public static final String EXTRA_ORIGINAL = "original";
+
+    public static final int DEFAULT_OUTPUT_QUALITY = 90;
+
     /**
      * EXTRA_OUTPUT will contain a single image Uri.
      * @param context
@@ -40,6 +64,25 @@ public class TwitterImagePickerActivity extends AppCompatActivity implements
         return intent;
     }
 
+    /**
+     * EXTRA_OUTPUT will contain the Uri of a copy of the image in the app's cache directory that is
+     * upright and fits in the max dimension. The picked image is in EXTRA_ORIGINAL.
+     * @param context
+     * @param finishOnSelection If true, the selection will return immediately after clicking an image.
+     * @param outputMaxDimension Maximum width and height of the output in pixels.
+     * @param outputFormat
+     * @param outputQuality 0 to 100
+     * @return
+     */
+    public static Intent getSingleSelectionIntent(Context context, boolean finishOnSelection,
+                                                  int outputMaxDimension, Bitmap.CompressFormat outputFormat, int outputQuality) {
+        Intent intent = getSingleSelectionIntent(context, finishOnSelection);
+
+        putOutputExtras(intent, outputMaxDimension, outputFormat, outputQuality);
+
+        return intent;
+    }
+
     /**
      * EXTRA_OUTPUT will contain an array of image uris.
      * @param context
@@ -56,6 +99,33 @@ public class TwitterImagePickerActivity extends AppCompatActivity implements
         return intent;
     }
 
+    /**
+     * EXTRA_OUTPUT will contain an array of Uris of copies of the images in the app's cache
+     * directory that are upright and fit in the max dimension. The picked images are in
+     * EXTRA_ORIGINAL.
+     * @param context
+     * @param defaultMultiSelect  If false, the user enters multi selection mode by long pressing a second image.
+     * @param maxCount 0 for unlimited
+     * @param outputMaxDimension Maximum width and height of the outputs in pixels.
+     * @param outputFormat
+     * @param outputQuality 0 to 100
+     * @return
+     */
+    public static Intent getMultiSelectionIntent(Context context, boolean defaultMultiSelect, int maxCount,
+                                                 int outputMaxDimension, Bitmap.CompressFormat outputFormat, int outputQuality) {
+        Intent intent = getMultiSelectionIntent(context, defaultMultiSelect, maxCount);
+
+        putOutputExtras(intent, outputMaxDimension, outputFormat, outputQuality);
+
+        return intent;
+    }
+
+    private static void putOutputExtras(Intent intent, int maxDimension, Bitmap.CompressFormat format, int quality) {
+        intent.putExtra(EXTRA_OUTPUT_MAX_DIMENSION, maxDimension);
+        intent.putExtra(EXTRA_OUTPUT_FORMAT, format.name());
+        intent.putExtra(EXTRA_OUTPUT_QUALITY, quality);
+    }
+
     private GalleryAccess mGalleryAccess;
 
     private Spinner mSpinnerBucket;
@@ -64,6 +134,18 @@ public class TwitterImagePickerActivity extends AppCompatActivity implements
 
     private BucketAdapter mAdapter;
 
+    // -1 for the whole gallery.
+    private int mSelectedBucketIndex = -1;
+
+    private TextView mButtonDone;
+
+    // Only when the images are to be processed.
+    private ImageProcessor mImageProcessor = null;
+
+    // Done was tapped and the result is sent once the processing is complete.
+    private boolean mWaitingForProcessing = false;
+    private boolean mOutputsDelivered = false;
+
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -75,7 +157,8 @@ public class TwitterImagePickerActivity extends AppCompatActivity implements
         mSpinnerBucket = findViewById(R.id.spinner_bucket);
 
         findViewById(R.id.button_close).setOnClickListener(this);
-        findViewById(R.id.button_done).setOnClickListener(this);
+        mButtonDone = findViewById(R.id.button_done);
+        mButtonDone.setOnClickListener(this);
 
         mGalleryFragment = GalleryFragment.newInstance();
 
@@ -87,20 +170,89 @@ public class TwitterImagePickerActivity extends AppCompatActivity implements
         mGalleryFragment.setImageBucketIndex(-1);
 
         mAdapter = new BucketAdapter();
+        mAdapter.refresh();
         mSpinnerBucket.setAdapter(mAdapter);
         mSpinnerBucket.setOnItemSelectedListener(this);
+        mSpinnerBucket.setOnTouchListener(this);
 
-        mGalleryAccess.registerOnPreparedListener(this);
+        mGalleryAccess.registerOnIndexChangedListener(this);
 
         Intent intent = getIntent();
 
         mGalleryFragment.setSelectionMode(intent.getIntExtra(EXTRA_SELECTION_MODE, GalleryFragment.SELECTION_MODE_MULTIPLE_LONG_PRESS));
         mGalleryFragment.setMultiSelectMaxCount(intent.getIntExtra(EXTRA_MULTI_SELECT_MAX_COUNT, GalleryFragment.DEFAULT_MULTI_SELECT_MAX_COUNT));
+
+        int outputMaxDimension = intent.getIntExtra(EXTRA_OUTPUT_MAX_DIMENSION, 0);
+
+        if (outputMaxDimension > 0) {
+            String format = intent.getStringExtra(EXTRA_OUTPUT_FORMAT);
+
+            mImageProcessor = new ImageProcessor(this, outputMaxDimension,
+                    format == null ? Bitmap.CompressFormat.JPEG : Bitmap.CompressFormat.valueOf(format),
+                    intent.getIntExtra(EXTRA_OUTPUT_QUALITY, DEFAULT_OUTPUT_QUALITY));
+            mImageProcessor.setOnProgressListener(this);
+
+            mGalleryFragment.setOnSelectionChangedListener(this);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        mGalleryAccess.unregisterOnIndexChangedListener(this);
+
+        if (mImageProcessor != null) {
+            mImageProcessor.release(!mOutputsDelivered);
+        }
     }
 
     @Override
-    public void onGalleryAccessPrepared(GalleryAccess galleryAccess) {
-        mAdapter.notifyDataSetChanged();
+    public void onSelectionChanged(GalleryFragment fragment) {
+        // Selected images are processed right away so they are mostly ready when done is tapped.
+        mImageProcessor.setImages(fragment.getSelectedImageIds(), mGalleryAccess);
+    }
+
+    @Override
+    public void onProgress(ImageProcessor processor, int processedCount, int imageCount) {
+        onProcessingProgress(processedCount, imageCount);
+
+        if (mWaitingForProcessing && processor.isComplete()) {
+            mWaitingForProcessing = false;
+
+            if (imageCount > 0) {
+                deliverProcessedImages();
+            }
+        }
+    }
+
+    /**
+     * Called while the selected images are being processed.
+     */
+    protected void onProcessingProgress(int processedCount, int imageCount) {
+        if (processedCount < imageCount) {
+            mButtonDone.setText(getString(R.string.twitterimagepicker_done_progress, processedCount, imageCount));
+        }
+        else {
+            mButtonDone.setText(R.string.twitterimagepicker_done);
+        }
+    }
+
+    @Override
+    public void onIndexChanged(GalleryAccess galleryAccess, GalleryIndexChange change) {
+        // Counts and covers change with every update. There are only a handful of buckets.
+        mAdapter.refresh();
+
+        int position = mAdapter.getPosition(mSelectedBucketIndex);
+
+        if (position == -1) {
+            // The shown bucket has become empty. Falls back to the whole gallery.
+            position = 0;
+        }
+
+        if (position != mSpinnerBucket.getSelectedItemPosition()) {
+            mSpinnerBucket.setSelection(position);
+        }
     }
 
     @Override
@@ -113,11 +265,75 @@ public class TwitterImagePickerActivity extends AppCompatActivity implements
         setSelectedBucket(0);
     }
 
-    private void setSelectedBucket(int index) {
-        mGalleryFragment.setImageBucketIndex(index - 1);
+    private void setSelectedBucket(int position) {
+        mSelectedBucketIndex = mAdapter.getBucketIndex(position);
+
+        mGalleryFragment.setImageBucketIndex(mSelectedBucketIndex);
+    }
+
+    @Override
+    public boolean onTouch(View v, MotionEvent event) {
+        if (event.getActionMasked() == MotionEvent.ACTION_UP) {
+            // The drop down is about to open.
+            prefetchBuckets();
+        }
+
+        return false;
+    }
+
+    /**
+     * Loads the covers of the first buckets and the first screen of the largest buckets at low
+     * priority so that they are ready by the time one is picked.
+     */
+    private void prefetchBuckets() {
+        int bucketCount = mGalleryAccess.getBucketCount();
+
+        for (int bucketIndex = 0; bucketIndex < bucketCount && bucketIndex < PREFETCHED_COVER_COUNT; bucketIndex++) {
+            long imageId = mGalleryAccess.getBucketCoverImageId(bucketIndex);
+
+            if (imageId != -1) {
+                mGalleryAccess.prefetchThumbnail(imageId);
+            }
+        }
+
+        int selectedBucketIndex = mSelectedBucketIndex;
+
+        int[] likelyBuckets = new int[LIKELY_BUCKET_COUNT];
+        int[] likelyBucketSizes = new int[LIKELY_BUCKET_COUNT];
+
+        // -1 is the whole gallery, which is the largest unless it is already shown.
+        for (int bucketIndex = -1; bucketIndex < bucketCount; bucketIndex++) {
+            if (bucketIndex == selectedBucketIndex) {
+                continue;
+            }
+
+            int size = bucketIndex == -1 ? mGalleryAccess.getImageCount() : mGalleryAccess.getImageCount(bucketIndex);
+
+            for (int i = 0; i < LIKELY_BUCKET_COUNT; i++) {
+                if (size > likelyBucketSizes[i]) {
+                    System.arraycopy(likelyBuckets, i, likelyBuckets, i + 1, LIKELY_BUCKET_COUNT - i - 1);
+                    System.arraycopy(likelyBucketSizes, i, likelyBucketSizes, i + 1, LIKELY_BUCKET_COUNT - i - 1);
+
+                    likelyBuckets[i] = bucketIndex;
+                    likelyBucketSizes[i] = size;
+                    break;
+                }
+            }
+        }
+
+        for (int i = 0; i < LIKELY_BUCKET_COUNT; i++) {
+            if (likelyBucketSizes[i] > 0) {
+                mGalleryFragment.prefetchBucket(likelyBuckets[i]);
+            }
+        }
     }
 
     protected void onSingleImageSelected(Uri uri) {
+        if (mImageProcessor != null) {
+            waitForProcessing();
+            return;
+        }
+
         Intent data = new Intent();
         data.putExtra(EXTRA_OUTPUT, uri);
 
@@ -134,6 +350,11 @@ public class TwitterImagePickerActivity extends AppCompatActivity implements
                 return;
             }
 
+            if (mImageProcessor != null) {
+                waitForProcessing();
+                return;
+            }
+
             boolean multiSelect = mGalleryFragment.isSelectionModeMultiSelect();
 
             Intent data = new Intent();
@@ -154,16 +375,89 @@ public class TwitterImagePickerActivity extends AppCompatActivity implements
         finish();
     }
 
+    private void waitForProcessing() {
+        if (mImageProcessor.isComplete()) {
+            deliverProcessedImages();
+        }
+        else {
+            mWaitingForProcessing = true;
+        }
+    }
+
+    private void deliverProcessedImages() {
+        Uri[] outputs = mImageProcessor.getOutputUris();
+        Uri[] originals = mGalleryFragment.getSelectedImages().toArray(new Uri[0]);
+
+        Intent data = new Intent();
+
+        if (mGalleryFragment.isSelectionModeMultiSelect()) {
+            data.putExtra(EXTRA_OUTPUT, outputs);
+            data.putExtra(EXTRA_ORIGINAL, originals);
+        }
+        else {
+            data.putExtra(EXTRA_OUTPUT, outputs[0]);
+            data.putExtra(EXTRA_ORIGINAL, originals[0]);
+        }
+
+        mOutputsDelivered = true;
+
+        setResult(RESULT_OK, data);
+        finish();
+    }
+
+    /**
+     * The whole gallery first, then the buckets that have images. Buckets keep their indices when
+     * they become empty so those are hidden rather than shown with no photos.
+     */
     private class BucketAdapter extends BaseAdapter {
 
+        private int[] mBucketIndices = new int[0];
+
+        private void refresh() {
+            int bucketCount = mGalleryAccess.getBucketCount();
+
+            int[] bucketIndices = new int[bucketCount];
+            int count = 0;
+
+            for (int bucketIndex = 0; bucketIndex < bucketCount; bucketIndex++) {
+                if (mGalleryAccess.getImageCount(bucketIndex) > 0) {
+                    bucketIndices[count++] = bucketIndex;
+                }
+            }
+
+            mBucketIndices = Arrays.copyOf(bucketIndices, count);
+
+            notifyDataSetChanged();
+        }
+
+        /**
+         * @return -1 for the whole gallery.
+         */
+        private int getBucketIndex(int position) {
+            return position <= 0 || position > mBucketIndices.length ? -1 : mBucketIndices[position - 1];
+        }
+
+        /**
+         * @return -1 if the bucket is not shown.
+         */
+        private int getPosition(int bucketIndex) {
+            if (bucketIndex == -1) {
+                return 0;
+            }
+
+            int position = Arrays.binarySearch(mBucketIndices, bucketIndex);
+
+            return position < 0 ? -1 : position + 1;
+        }
+
         @Override
         public int getCount() {
-            return mGalleryAccess == null ? 0 : (mGalleryAccess.getBucketCount() + 1);
+            return mBucketIndices.length + 1;
         }
 
         @Override
         public Object getItem(int position) {
-            return position == 0 ? getString(R.string.twitterimagepicker_gallery) : mGalleryAccess.getBucketAtPosition(position - 1);
+            return position == 0 ? getString(R.string.twitterimagepicker_gallery) : mGalleryAccess.getBucketAtPosition(getBucketIndex(position));
         }
 
         @Override
@@ -171,6 +465,18 @@ public class TwitterImagePickerActivity extends AppCompatActivity implements
             return position;
         }
 
+        private int getImageCount(int position) {
+            return position == 0 ? mGalleryAccess.getImageCount() : mGalleryAccess.getImageCount(getBucketIndex(position));
+        }
+
+        private long getCoverImageId(int position) {
+            if (position == 0) {
+                return mGalleryAccess.getImageCount() == 0 ? -1 : mGalleryAccess.getImageId(0);
+            }
+
+            return mGalleryAccess.getBucketCoverImageId(getBucketIndex(position));
+        }
+
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
             TextView view = null;
@@ -189,18 +495,89 @@ public class TwitterImagePickerActivity extends AppCompatActivity implements
 
         @Override
         public View getDropDownView(int position, View convertView, ViewGroup parent) {
-            TextView view = null;
+            BucketViewHolder holder;
 
             if (convertView != null) {
-                view = (TextView) convertView;
+                holder = (BucketViewHolder) convertView.getTag();
             }
             else {
-                view = (TextView) getLayoutInflater().inflate(R.layout.dropdownitem_twitterimagepicker, parent, false);
+                holder = new BucketViewHolder(getLayoutInflater().inflate(R.layout.dropdownitem_twitterimagepicker, parent, false));
             }
 
-            view.setText((String) getItem(position));
+            int imageCount = getImageCount(position);
 
-            return view;
+            holder.mTextName.setText((String) getItem(position));
+            holder.mTextCount.setText(getResources().getQuantityString(R.plurals.twitterimagepicker_image_count, imageCount, imageCount));
+            holder.setCoverImageId(getCoverImageId(position));
+
+            return holder.mView;
+        }
+
+    }
+
+    private class BucketViewHolder implements GalleryAccess.OnPlaceholderReadyReceiver {
+
+        private View mView;
+        private ImageView mImageCover;
+        private TextView mTextName;
+        private TextView mTextCount;
+
+        private long mImageId = -1;
+
+        private GalleryAccess.ThumbnailRequest mThumbnailRequest = null;
+
+        private BucketViewHolder(View view) {
+            mView = view;
+            mImageCover = view.findViewById(R.id.image_cover);
+            mTextName = view.findViewById(R.id.text_name);
+            mTextCount = view.findViewById(R.id.text_count);
+
+            view.setTag(this);
+        }
+
+        private void setCoverImageId(long imageId) {
+            if (imageId == mImageId) {
+                return;
+            }
+
+            if (mThumbnailRequest != null) {
+                mThumbnailRequest.cancel();
+                mThumbnailRequest = null;
+            }
+
+            mImageId = imageId;
+
+            if (imageId == -1) {
+                mImageCover.setImageDrawable(null);
+                return;
+            }
+
+            Drawable thumbnail = mGalleryAccess.getCachedThumbnail(imageId);
+
+            if (thumbnail != null) {
+                mImageCover.setImageDrawable(thumbnail);
+                return;
+            }
+
+            mImageCover.setImageDrawable(mGalleryAccess.getPlaceholder(imageId));
+
+            mThumbnailRequest = mGalleryAccess.loadThumbnail(imageId, this);
+        }
+
+        @Override
+        public void onPlaceholderReady(Uri imageUri, Drawable placeholder) {
+            if (ContentUris.parseId(imageUri) == mImageId) {
+                mImageCover.setImageDrawable(placeholder);
+            }
+        }
+
+        @Override
+        public void onThumbnailReady(Uri imageUri, Drawable thumbnail) {
+            if (ContentUris.parseId(imageUri) == mImageId) {
+                mThumbnailRequest = null;
+
+                mImageCover.setImageDrawable(thumbnail);
+            }
         }
 
     }
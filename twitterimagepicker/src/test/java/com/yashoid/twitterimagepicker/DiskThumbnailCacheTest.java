@@ -0,0 +1,168 @@
+package com.yashoid.twitterimagepicker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class DiskThumbnailCacheTest {
+
+    private static final int JOURNAL_MAGIC = 0x54495044;
+    private static final int JOURNAL_VERSION = 2;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_READ = 2;
+    private static final byte OP_REMOVE = 3;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 26;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("thumbnails", "");
+        mDirectory.delete();
+        mDirectory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+
+        if (files != null) {
+            for (File file: files) {
+                file.delete();
+            }
+        }
+
+        mDirectory.delete();
+    }
+
+    @Test
+    public void replaysJournalInOrderOfUse() throws IOException {
+        DataOutputStream journal = openJournal();
+
+        writeRecord(journal, OP_PUT, 1, 10, 100);
+        writeRecord(journal, OP_PUT, 2, 20, 200);
+        writeRecord(journal, OP_READ, 1, 10, 0);
+        writeRecord(journal, OP_PUT, 3, 30, 300);
+        writeRecord(journal, OP_REMOVE, 2, 0, 0);
+
+        journal.close();
+
+        createThumbnail(1, 10);
+        createThumbnail(3, 30);
+
+        DiskThumbnailCache cache = new DiskThumbnailCache(mDirectory, 1000);
+
+        assertEquals(400, cache.getSize());
+        assertNull(cache.getEntry(2, 20));
+
+        // Image 1 was last used before image 3 was put.
+        cache.setMaxSize(350);
+
+        assertEquals(300, cache.getSize());
+        assertNull(cache.getEntry(1, 10));
+        assertNotNull(cache.getEntry(3, 30));
+        assertFalse(new File(mDirectory, "1_10").exists());
+    }
+
+    @Test
+    public void ignoresTruncatedRecord() throws IOException {
+        DataOutputStream journal = openJournal();
+
+        writeRecord(journal, OP_PUT, 1, 10, 100);
+
+        // The process died while writing the next record.
+        journal.writeByte(OP_PUT);
+        journal.writeInt(0);
+
+        journal.close();
+
+        createThumbnail(1, 10);
+
+        DiskThumbnailCache cache = new DiskThumbnailCache(mDirectory, 1000);
+
+        assertEquals(100, cache.getSize());
+
+        // Rewritten without the partial record when opened.
+        assertEquals(HEADER_SIZE + RECORD_SIZE, new File(mDirectory, "journal").length());
+
+        assertNotNull(cache.getEntry(1, 10));
+    }
+
+    @Test
+    public void removesEntryOfOtherDateModified() throws IOException {
+        DataOutputStream journal = openJournal();
+
+        writeRecord(journal, OP_PUT, 1, 10, 100);
+
+        journal.close();
+
+        createThumbnail(1, 10);
+
+        DiskThumbnailCache cache = new DiskThumbnailCache(mDirectory, 1000);
+
+        assertNull(cache.getEntry(1, 11));
+        assertNull(cache.getEntry(1, 10));
+        assertEquals(0, cache.getSize());
+        assertFalse(new File(mDirectory, "1_10").exists());
+    }
+
+    @Test
+    public void compactsJournalOfReads() throws IOException {
+        DataOutputStream journal = openJournal();
+
+        writeRecord(journal, OP_PUT, 1, 10, 100);
+        writeRecord(journal, OP_PUT, 2, 20, 200);
+
+        journal.close();
+
+        DiskThumbnailCache cache = new DiskThumbnailCache(mDirectory, 1000);
+
+        for (int i = 0; i < 5000; i++) {
+            assertNotNull(cache.getEntry(i % 2 + 1, (i % 2 + 1) * 10));
+        }
+
+        // Compacted every 2000 redundant records or so.
+        long length = new File(mDirectory, "journal").length();
+
+        assertTrue("Journal is " + length + " bytes.", length < HEADER_SIZE + RECORD_SIZE * 2100);
+
+        DiskThumbnailCache reopened = new DiskThumbnailCache(mDirectory, 1000);
+
+        assertEquals(300, reopened.getSize());
+        assertNotNull(reopened.getEntry(1, 10));
+        assertNotNull(reopened.getEntry(2, 20));
+    }
+
+    private DataOutputStream openJournal() throws IOException {
+        DataOutputStream journal = new DataOutputStream(new FileOutputStream(new File(mDirectory, "journal")));
+
+        journal.writeInt(JOURNAL_MAGIC);
+        journal.writeInt(JOURNAL_VERSION);
+
+        return journal;
+    }
+
+    private static void writeRecord(DataOutputStream journal, byte op, long imageId, long dateModified,
+                                    long size) throws IOException {
+        journal.writeByte(op);
+        journal.writeLong(imageId);
+        journal.writeLong(dateModified);
+        journal.writeLong(size);
+        journal.writeBoolean(false);
+    }
+
+    private void createThumbnail(long imageId, long dateModified) throws IOException {
+        new FileOutputStream(new File(mDirectory, imageId + "_" + dateModified)).close();
+    }
+
+}
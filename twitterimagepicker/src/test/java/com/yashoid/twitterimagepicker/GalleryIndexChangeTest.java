@@ -0,0 +1,169 @@
+package com.yashoid.twitterimagepicker;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class GalleryIndexChangeTest {
+
+    private static final int BUCKET_COUNT = 3;
+
+    @Test
+    public void appendOnly() {
+        GalleryIndex previousIndex = buildIndex(new long[] { 1, 2, 3, 4, 5 }, null);
+        GalleryIndex index = buildIndex(new long[] { 1, 2, 3, 4, 5, 6, 7, 8 }, null);
+
+        GalleryIndexChange change = GalleryIndexChange.append(previousIndex, index);
+
+        assertTrue(change.isAppendOnly());
+        assertEquals(3, change.getInsertedImageCount());
+
+        assertDispatch(change, previousIndex, index, -1);
+
+        for (int bucketIndex = 0; bucketIndex < BUCKET_COUNT; bucketIndex++) {
+            assertDispatch(change, previousIndex, index, bucketIndex);
+        }
+    }
+
+    @Test
+    public void removalsThenInsertions() {
+        GalleryIndex previousIndex = buildIndex(new long[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 }, null);
+        GalleryIndex index = buildIndex(new long[] { 20, 1, 4, 5, 6, 21, 9, 10, 11, 12, 22 }, null);
+
+        GalleryIndexChange change = GalleryIndexChange.delta(previousIndex, index,
+                new int[] { 1, 2, 6, 7 }, new int[] { 0, 5, 10 });
+
+        assertFalse(change.isAppendOnly());
+        assertEquals(4, change.getRemovedImageCount());
+        assertEquals(3, change.getInsertedImageCount());
+
+        ListUpdateRecorder recorder = assertDispatch(change, previousIndex, index, -1);
+
+        // Removals 7-8 and 2-3, then insertions of 20, 21 and 22.
+        assertEquals(5, recorder.getUpdateCount());
+
+        for (int bucketIndex = 0; bucketIndex < BUCKET_COUNT; bucketIndex++) {
+            assertDispatch(change, previousIndex, index, bucketIndex);
+        }
+    }
+
+    @Test
+    public void randomChanges() {
+        Random random = new Random(1);
+
+        for (int round = 0; round < 200; round++) {
+            List<Long> previousIds = new ArrayList<>();
+            List<Long> ids = new ArrayList<>();
+
+            int[] removedPositions = new int[0];
+            int[] insertedPositions = new int[0];
+
+            long nextId = 1;
+
+            for (int i = random.nextInt(50); i > 0; i--) {
+                previousIds.add(nextId++);
+            }
+
+            for (int position = 0; position < previousIds.size(); position++) {
+                if (random.nextInt(4) == 0) {
+                    removedPositions = append(removedPositions, position);
+                }
+                else {
+                    ids.add(previousIds.get(position));
+                }
+            }
+
+            for (int i = random.nextInt(20); i > 0; i--) {
+                ids.add(random.nextInt(ids.size() + 1), nextId++);
+            }
+
+            Set<Long> kept = new HashSet<>(previousIds);
+            Set<Long> newBucketIds = new HashSet<>();
+
+            for (int position = 0; position < ids.size(); position++) {
+                if (!kept.contains(ids.get(position))) {
+                    insertedPositions = append(insertedPositions, position);
+
+                    if (random.nextInt(3) == 0) {
+                        newBucketIds.add(ids.get(position));
+                    }
+                }
+            }
+
+            GalleryIndex previousIndex = buildIndex(toArray(previousIds), null);
+            GalleryIndex index = buildIndex(toArray(ids), newBucketIds);
+
+            GalleryIndexChange change = GalleryIndexChange.delta(previousIndex, index, removedPositions, insertedPositions);
+
+            for (int bucketIndex = -1; bucketIndex <= BUCKET_COUNT; bucketIndex++) {
+                assertDispatch(change, previousIndex, index, bucketIndex);
+            }
+        }
+    }
+
+    private static ListUpdateRecorder assertDispatch(GalleryIndexChange change, GalleryIndex previousIndex,
+                                                     GalleryIndex index, int bucketIndex) {
+        long[] previousIds = previousIndex.getImageIds(bucketIndex);
+
+        ListUpdateRecorder recorder = new ListUpdateRecorder(previousIds);
+
+        change.dispatchUpdatesTo(bucketIndex, recorder);
+
+        recorder.assertIds(index.getImageIds(bucketIndex), previousIds);
+
+        return recorder;
+    }
+
+    /**
+     * Images go to the buckets by their id. Buckets keep their indices across indices as they do
+     * in GalleryAccess.
+     * @param newBucketIds Images that go to a bucket after the others, or null if there is none.
+     */
+    private static GalleryIndex buildIndex(long[] imageIds, Set<Long> newBucketIds) {
+        GalleryIndex.Builder builder = new GalleryIndex.Builder(imageIds.length, true);
+
+        for (int bucketIndex = 0; bucketIndex < BUCKET_COUNT; bucketIndex++) {
+            builder.addBucket(100 + bucketIndex, "Bucket " + bucketIndex);
+        }
+
+        if (newBucketIds != null) {
+            builder.addBucket(100 + BUCKET_COUNT, "Bucket " + BUCKET_COUNT);
+        }
+
+        for (long imageId: imageIds) {
+            boolean inNewBucket = newBucketIds != null && newBucketIds.contains(imageId);
+
+            long bucketId = 100 + (inNewBucket ? BUCKET_COUNT : imageId % BUCKET_COUNT);
+
+            builder.addImage(imageId, imageId, 0, 0, bucketId, null);
+        }
+
+        return builder.build();
+    }
+
+    private static int[] append(int[] values, int value) {
+        int[] appended = new int[values.length + 1];
+
+        System.arraycopy(values, 0, appended, 0, values.length);
+        appended[values.length] = value;
+
+        return appended;
+    }
+
+    private static long[] toArray(List<Long> ids) {
+        long[] array = new long[ids.size()];
+
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
+        }
+
+        return array;
+    }
+
+}
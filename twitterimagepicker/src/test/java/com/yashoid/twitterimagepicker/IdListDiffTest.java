@@ -0,0 +1,113 @@
+package com.yashoid.twitterimagepicker;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IdListDiffTest {
+
+    @Test
+    public void sameListHasNoUpdates() {
+        long[] ids = { 1, 2, 3, 4 };
+
+        IdListDiff diff = IdListDiff.calculate(ids, ids.clone());
+
+        assertEquals(0, diff.getRemovedCount());
+        assertEquals(0, diff.getInsertedCount());
+        assertEquals(0, diff.getMovedCount());
+
+        assertEquals(0, dispatch(ids, ids.clone(), diff).getUpdateCount());
+    }
+
+    @Test
+    public void withoutMovesOnlyRemovesAndInserts() {
+        long[] oldIds = { 1, 2, 3, 4, 5, 6, 7, 8 };
+        long[] newIds = { 10, 1, 3, 4, 11, 12, 6, 8, 13 };
+
+        IdListDiff diff = IdListDiff.calculate(oldIds, newIds);
+
+        assertEquals(3, diff.getRemovedCount());
+        assertEquals(4, diff.getInsertedCount());
+        assertEquals(0, diff.getMovedCount());
+
+        ListUpdateRecorder recorder = dispatch(oldIds, newIds, diff);
+
+        // Removals 7, 5 and 2, then insertions at 0, 4 and 8. Runs are reported together.
+        assertEquals(6, recorder.getUpdateCount());
+    }
+
+    @Test
+    public void movesOnlyWhatIsOutOfOrder() {
+        IdListDiff diff = IdListDiff.calculate(new long[] { 1, 2, 3, 4, 5 }, new long[] { 5, 1, 2, 3, 4 });
+
+        assertEquals(1, diff.getMovedCount());
+
+        diff = IdListDiff.calculate(new long[] { 1, 2, 3, 4, 5 }, new long[] { 5, 4, 3, 2, 1 });
+
+        assertEquals(4, diff.getMovedCount());
+
+        dispatch(new long[] { 1, 2, 3, 4, 5 }, new long[] { 5, 4, 3, 2, 1 }, diff);
+    }
+
+    @Test
+    public void emptyLists() {
+        long[] ids = { 1, 2, 3 };
+
+        dispatch(new long[0], ids, IdListDiff.calculate(new long[0], ids));
+        dispatch(ids, new long[0], IdListDiff.calculate(ids, new long[0]));
+        dispatch(new long[0], new long[0], IdListDiff.calculate(new long[0], new long[0]));
+    }
+
+    @Test
+    public void randomChanges() {
+        Random random = new Random(1);
+
+        for (int round = 0; round < 500; round++) {
+            long[] oldIds = randomIds(random, random.nextInt(60));
+            long[] newIds = randomIds(random, random.nextInt(60));
+
+            IdListDiff diff = IdListDiff.calculate(oldIds, newIds);
+
+            dispatch(oldIds, newIds, diff);
+        }
+    }
+
+    private static ListUpdateRecorder dispatch(long[] oldIds, long[] newIds, IdListDiff diff) {
+        ListUpdateRecorder recorder = new ListUpdateRecorder(oldIds);
+
+        diff.dispatchUpdatesTo(recorder);
+
+        recorder.assertIds(newIds, oldIds);
+
+        return recorder;
+    }
+
+    /**
+     * Unique ids out of a small range so two lists share many of them. Half of the lists are not
+     * shuffled so two of those diff without moves.
+     */
+    private static long[] randomIds(Random random, int count) {
+        long[] ids = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            ids[i] = i;
+        }
+
+        for (int i = random.nextBoolean() ? count - 1 : 0; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+
+            long id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+        }
+
+        for (int i = 0; i < count; i++) {
+            ids[i] += random.nextInt(4) == 0 ? 100 : 0;
+        }
+
+        return ids;
+    }
+
+}
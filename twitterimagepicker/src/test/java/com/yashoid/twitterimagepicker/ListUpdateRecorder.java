@@ -0,0 +1,94 @@
+package com.yashoid.twitterimagepicker;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Applies the reported updates to a list of ids the way RecyclerView would. Inserted items are null.
+ * Fails if a removal is reported after an insertion or a move, or removals are not from the last
+ * position to the first.
+ */
+class ListUpdateRecorder implements ListUpdateCallback {
+
+    private List<Long> mIds = new ArrayList<>();
+
+    private int mUpdateCount = 0;
+
+    private int mLastRemovedPosition = Integer.MAX_VALUE;
+    private boolean mInsertedOrMoved = false;
+
+    ListUpdateRecorder(long[] ids) {
+        for (long id: ids) {
+            mIds.add(id);
+        }
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+        assertTrue(position >= 0 && position <= mIds.size());
+        assertTrue(count > 0);
+
+        for (int i = 0; i < count; i++) {
+            mIds.add(position, null);
+        }
+
+        mInsertedOrMoved = true;
+        mUpdateCount++;
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+        assertFalse("Removed after an insertion or a move.", mInsertedOrMoved);
+        assertTrue("Removals out of order.", position + count <= mLastRemovedPosition);
+        assertTrue(position >= 0 && position + count <= mIds.size());
+        assertTrue(count > 0);
+
+        mIds.subList(position, position + count).clear();
+
+        mLastRemovedPosition = position;
+        mUpdateCount++;
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+        assertTrue(fromPosition != toPosition);
+
+        mIds.add(toPosition, mIds.remove(fromPosition));
+
+        mInsertedOrMoved = true;
+        mUpdateCount++;
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+        fail("Changes are never reported.");
+    }
+
+    int getUpdateCount() {
+        return mUpdateCount;
+    }
+
+    /**
+     * Checks that the list is the given ids, where the ids that were not in the original list are null.
+     */
+    void assertIds(long[] ids, long[] originalIds) {
+        List<Long> originals = new ArrayList<>();
+
+        for (long id: originalIds) {
+            originals.add(id);
+        }
+
+        assertEquals(ids.length, mIds.size());
+
+        for (int position = 0; position < ids.length; position++) {
+            Long expected = originals.contains(ids[position]) ? ids[position] : null;
+
+            assertEquals("At position " + position, expected, mIds.get(position));
+        }
+    }
+
+}
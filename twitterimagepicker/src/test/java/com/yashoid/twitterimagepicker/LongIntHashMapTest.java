@@ -0,0 +1,90 @@
+package com.yashoid.twitterimagepicker;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongIntHashMapTest {
+
+    @Test
+    public void putGetRemove() {
+        LongIntHashMap map = new LongIntHashMap(4, -1);
+
+        map.put(7, 70);
+        map.put(0, 0);
+        map.put(-3, 30);
+        map.put(7, 71);
+
+        assertEquals(3, map.size());
+        assertEquals(71, map.get(7));
+        assertEquals(0, map.get(0));
+        assertEquals(30, map.get(-3));
+        assertEquals(-1, map.get(5));
+
+        assertEquals(0, map.remove(0));
+        assertEquals(-1, map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(2, map.size());
+
+        map.clear();
+
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(7));
+    }
+
+    @Test
+    public void removeKeepsProbedKeysReachable() {
+        // Few keys in a small table so most of them share probe sequences with others.
+        LongIntHashMap map = new LongIntHashMap(0, -1);
+        Map<Long, Integer> expected = new HashMap<>();
+
+        Random random = new Random(1);
+
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(64) - 8;
+
+            if (random.nextBoolean()) {
+                map.put(key, i);
+                expected.put(key, i);
+            }
+            else {
+                Integer value = expected.remove(key);
+
+                assertEquals(value == null ? -1 : value, map.remove(key));
+            }
+
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (long key = -8; key < 56; key++) {
+            Integer value = expected.get(key);
+
+            assertEquals(value != null, map.containsKey(key));
+            assertEquals(value == null ? -1 : value, map.get(key));
+        }
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        LongIntHashMap map = new LongIntHashMap(16, -1);
+
+        for (long key = 1; key <= 100; key++) {
+            map.put(key, (int) key);
+        }
+
+        LongIntHashMap copy = new LongIntHashMap(map);
+
+        map.remove(50);
+        copy.put(200, 200);
+
+        assertEquals(50, copy.get(50));
+        assertFalse(map.containsKey(200));
+        assertEquals(99, map.size());
+        assertEquals(101, copy.size());
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.yashoid.twitterimagepicker;
+
+import org.junit.Test;
+
+import java.util.LinkedHashSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SelectionStoreTest {
+
+    @Test
+    public void keepsOrderOfAdding() {
+        SelectionStore store = new SelectionStore(0);
+
+        assertTrue(store.add(5));
+        assertTrue(store.add(3));
+        assertTrue(store.add(9));
+        assertFalse(store.add(3));
+
+        assertArrayEquals(new long[] { 5, 3, 9 }, store.toArray());
+
+        assertTrue(store.remove(3));
+        assertFalse(store.remove(3));
+
+        assertArrayEquals(new long[] { 5, 9 }, store.toArray());
+
+        assertTrue(store.remove(5));
+        assertTrue(store.remove(9));
+
+        assertTrue(store.isEmpty());
+        assertArrayEquals(new long[0], store.toArray());
+    }
+
+    @Test
+    public void reusedSlotsGoToTheEnd() {
+        SelectionStore store = new SelectionStore(0);
+
+        for (long id = 1; id <= 20; id++) {
+            store.add(id);
+        }
+
+        store.remove(1);
+        store.remove(10);
+        store.remove(20);
+
+        // Takes the slots that were freed but are still added last.
+        store.add(10);
+        store.add(1);
+        store.add(30);
+        store.add(31);
+
+        assertArrayEquals(new long[] { 2, 3, 4, 5, 6, 7, 8, 9, 11, 12, 13, 14, 15, 16, 17, 18, 19, 10, 1, 30, 31 },
+                store.toArray());
+
+        store.clear();
+        store.add(4);
+
+        assertArrayEquals(new long[] { 4 }, store.toArray());
+        assertFalse(store.contains(10));
+    }
+
+    @Test
+    public void matchesLinkedHashSet() {
+        SelectionStore store = new SelectionStore(8);
+        LinkedHashSet<Long> expected = new LinkedHashSet<>();
+
+        Random random = new Random(1);
+
+        for (int i = 0; i < 20000; i++) {
+            long id = random.nextInt(200);
+
+            if (random.nextInt(3) > 0) {
+                assertEquals(expected.add(id), store.add(id));
+            }
+            else {
+                assertEquals(expected.remove(id), store.remove(id));
+            }
+
+            assertEquals(expected.size(), store.size());
+            assertEquals(expected.contains(id), store.contains(id));
+        }
+
+        long[] ids = new long[expected.size()];
+        int index = 0;
+
+        for (long id: expected) {
+            ids[index++] = id;
+        }
+
+        assertArrayEquals(ids, store.toArray());
+    }
+
+}